@@ -1,6 +1,7 @@
 package com.iterable.iterableapi;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -21,6 +22,10 @@ class ApiEndpointClassification {
         return !unauthenticatedPaths.contains(path);
     }
 
+    Set<String> getUnauthenticatedPaths() {
+        return Collections.unmodifiableSet(unauthenticatedPaths);
+    }
+
     void updateFromRemoteConfig(Set<String> paths) {
         this.unauthenticatedPaths = new HashSet<>(paths);
     }
@@ -1,8 +1,40 @@
 package com.iterable.iterableapi;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class HealthMonitor implements IterableTaskStorage.IterableDatabaseStatusListeners {
     private static final String TAG = "HealthMonitor";
 
+    // Offline endpoints grouped by priority, lowest priority first. Used by
+    // IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY to pick the task to drop.
+    private static final List<Set<String>> ENDPOINTS_BY_PRIORITY = Arrays.<Set<String>>asList(
+            new HashSet<>(Arrays.asList(
+                    IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY,
+                    IterableConstants.ENDPOINT_TRACK_EMBEDDED_RECEIVED,
+                    IterableConstants.ENDPOINT_TRACK_EMBEDDED_SESSION,
+                    IterableConstants.ENDPOINT_TRACK_INBOX_SESSION)),
+            new HashSet<>(Arrays.asList(
+                    IterableConstants.ENDPOINT_TRACK,
+                    IterableConstants.ENDPOINT_TRACK_PUSH_OPEN,
+                    IterableConstants.ENDPOINT_TRACK_INAPP_OPEN,
+                    IterableConstants.ENDPOINT_TRACK_INAPP_CLICK,
+                    IterableConstants.ENDPOINT_TRACK_INAPP_CLOSE,
+                    IterableConstants.ENDPOINT_TRACK_EMBEDDED_CLICK,
+                    IterableConstants.ENDPOINT_INAPP_CONSUME))
+    );
+
+    // Endpoints whose requests fully replace the state sent by previous requests to the same endpoint
+    private static final Set<String> COALESCABLE_ENDPOINTS = new HashSet<>(Collections.singletonList(
+            IterableConstants.ENDPOINT_UPDATE_CART
+    ));
+
     private boolean databaseErrored = false;
 
     private IterableTaskStorage iterableTaskStorage;
@@ -28,6 +60,64 @@ public class HealthMonitor implements IterableTaskStorage.IterableDatabaseStatus
         return !databaseErrored;
     }
 
+    /**
+     * Drops a queued task to make room for a new request to the given endpoint when the
+     * offline queue is full.
+     *
+     * @param resourcePath endpoint of the new request
+     * @param policy       overflow policy that determines which task is dropped
+     * @return id of the dropped task, or null if no task was dropped
+     */
+    @Nullable
+    String dropTaskForOverflow(@NonNull String resourcePath, @NonNull IterableOfflineQueueOverflowPolicy policy) {
+        if (databaseErrored) {
+            return null;
+        }
+
+        String taskId = null;
+        switch (policy) {
+            case COALESCE:
+                if (COALESCABLE_ENDPOINTS.contains(resourcePath)) {
+                    taskId = iterableTaskStorage.getOldestTaskId(Collections.singletonList(resourcePath));
+                }
+                break;
+            case DROP_LOWEST_PRIORITY:
+                // Only tasks with a lower priority than the new request are dropped, the new
+                // request is dropped instead if there are none
+                int priority = getPriority(resourcePath);
+                for (int i = 0; i < priority && taskId == null; i++) {
+                    taskId = iterableTaskStorage.getOldestTaskId(ENDPOINTS_BY_PRIORITY.get(i));
+                }
+                if (taskId == null) {
+                    return null;
+                }
+                break;
+            case DROP_OLDEST:
+                break;
+            default:
+                return null;
+        }
+
+        if (taskId == null) {
+            taskId = iterableTaskStorage.getOldestTaskId(null);
+        }
+        if (taskId == null || !iterableTaskStorage.deleteTask(taskId)) {
+            return null;
+        }
+        IterableLogger.d(TAG, "Offline queue is full. Dropped task " + taskId + " using policy " + policy);
+        return taskId;
+    }
+
+    // Endpoints that are not listed, such as commerce events, have the highest priority
+    private static int getPriority(@NonNull String resourcePath) {
+        for (int i = 0; i < ENDPOINTS_BY_PRIORITY.size(); i++) {
+            if (ENDPOINTS_BY_PRIORITY.get(i).contains(resourcePath)) {
+                return i;
+            }
+        }
+        return ENDPOINTS_BY_PRIORITY.size();
+    }
+
     @Override
     public void onDBError() {
         IterableLogger.e(TAG, "DB Error notified to healthMonitor");
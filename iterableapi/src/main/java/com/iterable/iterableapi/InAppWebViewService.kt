@@ -12,11 +12,12 @@ internal class InAppWebViewService {
     fun createConfiguredWebView(
         context: Context,
         callbacks: IterableWebView.HTMLNotificationCallbacks,
-        htmlContent: String
+        htmlContent: String,
+        messageId: String? = null
     ): IterableWebView {
-        val webView = IterableWebView(context)
+        val webView = IterableWebViewPool.obtain(context)
         webView.id = R.id.webView
-        webView.createWithHtml(callbacks, htmlContent)
+        webView.createWithHtml(callbacks, htmlContent, messageId)
 
         IterableLogger.d(TAG, "Created and configured WebView with HTML content")
         return webView
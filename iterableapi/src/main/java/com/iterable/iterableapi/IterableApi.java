@@ -246,6 +246,7 @@ public class IterableApi {
      */
     void setDebugMode(boolean debugMode) {
         _debugMode = debugMode;
+        IterableLogger.updateLogLevel(config, _debugMode);
     }
 
     /**
@@ -302,6 +303,14 @@ public class IterableApi {
         apiClient.getInAppMessages(count, onCallback);
     }
 
+    void getInAppMessages(int count, @Nullable String eTag, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        if (!checkSDKInitialization()) {
+            return;
+        }
+
+        apiClient.getInAppMessages(count, eTag, onSuccess, onFailure);
+    }
+
     /**
      * Gets a list of placements for the list of placement ids passed in from Iterable and
      * passes the result to the callback;
@@ -357,6 +366,22 @@ public class IterableApi {
         apiClient.getEmbeddedMessages(null, onSuccess, onFailure);
     }
 
+    /**
+     * Used by the IterableEmbeddedManager to fetch embedded messages only if they have changed
+     * since the last sync.
+     *
+     * @param placementIds array of placement ids - optional
+     * @param eTag ETag of the last sync response, or null to always fetch the messages
+     * @param onSuccess
+     * @param onFailure
+     */
+    void getEmbeddedMessages(@Nullable Long[] placementIds, @Nullable String eTag, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        if (!checkSDKInitialization()) {
+            return;
+        }
+        apiClient.getEmbeddedMessages(placementIds, eTag, onSuccess, onFailure);
+    }
+
     /**
      * Tracks in-app delivery events (per in-app)
      * @param message the in-app message to be tracked as delivered */
@@ -819,6 +844,7 @@ public class IterableApi {
         if (sharedInstance.config == null) {
             sharedInstance.config = new IterableConfig.Builder().build();
         }
+        IterableLogger.updateLogLevel(sharedInstance.config, sharedInstance._debugMode);
 
         sharedInstance.retrieveEmailAndUserId();
 
@@ -834,6 +860,10 @@ public class IterableApi {
                     sharedInstance.config.useInMemoryStorageForInApps);
         }
 
+        if (sharedInstance.config.enableWebViewWarmUp) {
+            IterableWebViewPool.warmUp(context);
+        }
+
         if (sharedInstance.embeddedManager == null) {
             sharedInstance.embeddedManager = new IterableEmbeddedManager(
                     sharedInstance
@@ -970,17 +1000,20 @@ public class IterableApi {
 
     IterableApi() {
         config = new IterableConfig.Builder().build();
+        IterableLogger.updateLogLevel(config, _debugMode);
     }
 
     @VisibleForTesting
     IterableApi(IterableInAppManager inAppManager) {
         config = new IterableConfig.Builder().build();
+        IterableLogger.updateLogLevel(config, _debugMode);
         this.inAppManager = inAppManager;
     }
 
     @VisibleForTesting
     IterableApi(IterableInAppManager inAppManager, IterableEmbeddedManager embeddedManager) {
         config = new IterableConfig.Builder().build();
+        IterableLogger.updateLogLevel(config, _debugMode);
         this.inAppManager = inAppManager;
         this.embeddedManager = embeddedManager;
     }
@@ -988,6 +1021,7 @@ public class IterableApi {
     @VisibleForTesting
     IterableApi(IterableApiClient apiClient, IterableInAppManager inAppManager) {
         config = new IterableConfig.Builder().build();
+        IterableLogger.updateLogLevel(config, _debugMode);
         this.apiClient = apiClient;
         this.inAppManager = inAppManager;
     }
@@ -5,6 +5,7 @@ import android.os.Build;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.core.app.NotificationManagerCompat;
 
 import com.iterable.iterableapi.util.DeviceInfoUtils;
@@ -21,6 +22,7 @@ class IterableApiClient {
     private static final String TAG = "IterableApiClient";
     private final @NonNull AuthProvider authProvider;
     private RequestProcessor requestProcessor;
+    private final IterableRequestCoalescer requestCoalescer = new IterableRequestCoalescer();
 
     interface AuthProvider {
         @Nullable
@@ -68,6 +70,18 @@ class IterableApiClient {
                 : new OnlineRequestProcessor();
     }
 
+    /**
+     * Sends the queued offline requests while the app is in the background.
+     * @return true if there are no requests left that should be retried right away
+     */
+    @WorkerThread
+    boolean processOfflineTasksInBackground() {
+        if (requestProcessor instanceof OfflineRequestProcessor) {
+            return ((OfflineRequestProcessor) requestProcessor).processTasksInBackground();
+        }
+        return true;
+    }
+
     void getRemoteConfiguration(IterableHelper.IterableActionHandler actionHandler) {
         JSONObject requestJSON = new JSONObject();
         try {
@@ -284,68 +298,81 @@ class IterableApiClient {
     }
 
     public void getInAppMessages(int count, @NonNull IterableHelper.IterableActionHandler onCallback) {
-        JSONObject requestJSON = new JSONObject();
-        addEmailOrUserIdToJson(requestJSON);
         try {
-            addEmailOrUserIdToJson(requestJSON);
-            requestJSON.put(IterableConstants.ITERABLE_IN_APP_COUNT, count);
-            requestJSON.put(IterableConstants.KEY_PLATFORM, DeviceInfoUtils.isFireTV(authProvider.getContext().getPackageManager()) ? IterableConstants.ITBL_PLATFORM_OTT : IterableConstants.ITBL_PLATFORM_ANDROID);
-            requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
-            requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
-            requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
+            sendGetRequest(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, getInAppMessagesRequestJson(count), onCallback);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
 
-            sendGetRequest(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, requestJSON, onCallback);
+    /**
+     * Fetches in-app messages unless they have not changed since the response with the given ETag
+     * @param eTag ETag of the last response, or null to always fetch the messages
+     */
+    void getInAppMessages(int count, @Nullable String eTag, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        try {
+            sendConditionalGetRequest(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, getInAppMessagesRequestJson(count), eTag, onSuccess, onFailure);
         } catch (JSONException e) {
             e.printStackTrace();
         }
     }
 
-    void getEmbeddedMessages(@Nullable Long[] placementIds, @NonNull IterableHelper.IterableActionHandler onCallback) {
+    @NonNull
+    private JSONObject getInAppMessagesRequestJson(int count) throws JSONException {
         JSONObject requestJSON = new JSONObject();
+        addEmailOrUserIdToJson(requestJSON);
+        requestJSON.put(IterableConstants.ITERABLE_IN_APP_COUNT, count);
+        requestJSON.put(IterableConstants.KEY_PLATFORM, DeviceInfoUtils.isFireTV(authProvider.getContext().getPackageManager()) ? IterableConstants.ITBL_PLATFORM_OTT : IterableConstants.ITBL_PLATFORM_ANDROID);
+        requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
+        requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
+        requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
+        return requestJSON;
+    }
 
+    void getEmbeddedMessages(@Nullable Long[] placementIds, @NonNull IterableHelper.IterableActionHandler onCallback) {
         try {
-            addEmailOrUserIdToJson(requestJSON);
-            requestJSON.put(IterableConstants.KEY_PLATFORM, IterableConstants.ITBL_PLATFORM_ANDROID);
-            requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
-            requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
-            requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
-
-            if (placementIds != null && placementIds.length != 0) {
-                String path = getEmbeddedMessagesPath(placementIds);
-                sendGetRequest(path, requestJSON, onCallback);
-            } else {
-                sendGetRequest(IterableConstants.ENDPOINT_GET_EMBEDDED_MESSAGES, requestJSON, onCallback);
-            }
-
+            sendGetRequest(getEmbeddedMessagesPath(placementIds), getEmbeddedMessagesRequestJson(), onCallback);
         } catch (JSONException e) {
             e.printStackTrace();
         }
     }
 
     void getEmbeddedMessages(@Nullable Long[] placementIds, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
-        JSONObject requestJSON = new JSONObject();
-
         try {
-            addEmailOrUserIdToJson(requestJSON);
-            requestJSON.put(IterableConstants.KEY_PLATFORM, IterableConstants.ITBL_PLATFORM_ANDROID);
-            requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
-            requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
-            requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
-
-            if (placementIds != null && placementIds.length != 0) {
-                String path = getEmbeddedMessagesPath(placementIds);
-                sendGetRequest(path, requestJSON, onSuccess, onFailure);
-            } else {
-                sendGetRequest(IterableConstants.ENDPOINT_GET_EMBEDDED_MESSAGES, requestJSON, onSuccess, onFailure);
-            }
+            sendGetRequest(getEmbeddedMessagesPath(placementIds), getEmbeddedMessagesRequestJson(), onSuccess, onFailure);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Fetches embedded messages unless they have not changed since the response with the given ETag
+     * @param eTag ETag of the last response, or null to always fetch the messages
+     */
+    void getEmbeddedMessages(@Nullable Long[] placementIds, @Nullable String eTag, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        try {
+            sendConditionalGetRequest(getEmbeddedMessagesPath(placementIds), getEmbeddedMessagesRequestJson(), eTag, onSuccess, onFailure);
         } catch (JSONException e) {
             e.printStackTrace();
         }
     }
 
     @NonNull
-    private static String getEmbeddedMessagesPath(Long[] placementIds) {
+    private JSONObject getEmbeddedMessagesRequestJson() throws JSONException {
+        JSONObject requestJSON = new JSONObject();
+        addEmailOrUserIdToJson(requestJSON);
+        requestJSON.put(IterableConstants.KEY_PLATFORM, IterableConstants.ITBL_PLATFORM_ANDROID);
+        requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
+        requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
+        requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
+        return requestJSON;
+    }
+
+    @NonNull
+    private static String getEmbeddedMessagesPath(@Nullable Long[] placementIds) {
+        if (placementIds == null || placementIds.length == 0) {
+            return IterableConstants.ENDPOINT_GET_EMBEDDED_MESSAGES;
+        }
         StringBuilder pathBuilder = new StringBuilder(IterableConstants.ENDPOINT_GET_EMBEDDED_MESSAGES + "?");
 
         boolean isFirst = true;
@@ -775,14 +802,39 @@ class IterableApiClient {
      * @param json
      */
     void sendGetRequest(@NonNull String resourcePath, @NonNull JSONObject json, @Nullable IterableHelper.IterableActionHandler onCallback) {
-        getRequestProcessor().processGetRequest(authProvider.getApiKey(), resourcePath, json, authProvider.getAuthToken(), onCallback);
+        final String apiKey = authProvider.getApiKey();
+        final String authToken = authProvider.getAuthToken();
+        requestCoalescer.send(getRequestKey(apiKey, authToken, resourcePath, json), onCallback,
+                callback -> getRequestProcessor().processGetRequest(apiKey, resourcePath, json, authToken, callback));
     }
 
     void sendGetRequest(@NonNull String resourcePath, @NonNull JSONObject json, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
-        getRequestProcessor().processGetRequest(authProvider.getApiKey(), resourcePath, json, authProvider.getAuthToken(), onSuccess, onFailure);
+        final String apiKey = authProvider.getApiKey();
+        final String authToken = authProvider.getAuthToken();
+        requestCoalescer.send(getRequestKey(apiKey, authToken, resourcePath, json), onSuccess, onFailure,
+                (successHandler, failureHandler) -> getRequestProcessor().processGetRequest(apiKey, resourcePath, json, authToken, successHandler, failureHandler));
+    }
+
+    /**
+     * Sends a conditional GET request to Iterable, see {@link RequestProcessor#processConditionalGetRequest}
+     * @param eTag ETag of the last response, sent as If-None-Match
+     */
+    void sendConditionalGetRequest(@NonNull String resourcePath, @NonNull JSONObject json, @Nullable String eTag, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        final String apiKey = authProvider.getApiKey();
+        final String authToken = authProvider.getAuthToken();
+        requestCoalescer.send(getRequestKey(apiKey, authToken, resourcePath, json) + "|" + eTag, onSuccess, onFailure,
+                (successHandler, failureHandler) -> getRequestProcessor().processConditionalGetRequest(apiKey, resourcePath, json, authToken, eTag, successHandler, failureHandler));
+    }
+
+    // GET requests are idempotent, so identical requests in flight at the same time share a
+    // single network call. The key has to be built before the request adds createdAt to the json.
+    @NonNull
+    private static String getRequestKey(@Nullable String apiKey, @Nullable String authToken, @NonNull String resourcePath, @NonNull JSONObject json) {
+        return apiKey + "|" + authToken + "|" + resourcePath + "|" + json;
     }
 
     void onLogout() {
+        requestCoalescer.reset();
         getRequestProcessor().onLogout(authProvider.getContext());
         authProvider.resetAuth();
     }
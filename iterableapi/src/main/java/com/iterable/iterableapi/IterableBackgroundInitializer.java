@@ -154,6 +154,7 @@ class IterableBackgroundInitializer {
             IterableApi.sharedInstance._applicationContext = context.getApplicationContext();
             IterableApi.sharedInstance._apiKey = apiKey;
             IterableApi.sharedInstance.config = (config != null) ? config : new IterableConfig.Builder().build();
+            IterableLogger.updateLogLevel(IterableApi.sharedInstance.config, IterableApi.sharedInstance.getDebugMode());
         }
 
         IterableLogger.d(TAG, "Starting background initialization");
@@ -4,6 +4,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
 
+import java.util.concurrent.Executor;
+
 /**
  *
  */
@@ -154,6 +156,61 @@ public class IterableConfig {
     @Nullable
     final String webViewBaseUrl;
 
+    /**
+     * Maximum number of queued offline events that are sent together in a single bulk request
+     * when the offline queue is processed. Values of 1 or less disable batching.
+     */
+    final int offlineTaskBatchSize;
+
+    /**
+     * Determines what happens to new offline requests when the offline queue is full.
+     * Defaults to {@link IterableOfflineQueueOverflowPolicy#SEND_IMMEDIATELY}.
+     */
+    final IterableOfflineQueueOverflowPolicy offlineQueueOverflowPolicy;
+
+    /**
+     * Maximum number of queued offline requests that are sent concurrently when the offline
+     * queue is processed. Values of 1 or less send requests one at a time.
+     */
+    final int offlineProcessingConcurrency;
+
+    /**
+     * Allows sending queued offline requests while the app is in the background, using WorkManager.
+     */
+    final boolean enableBackgroundOfflineProcessing;
+
+    /**
+     * Compresses large request bodies and requests compressed responses for GET requests.
+     */
+    final boolean enableRequestCompression;
+
+    /**
+     * Executor used to send network requests. If null, the SDK uses its own thread pool.
+     */
+    @Nullable
+    final Executor networkExecutor;
+
+    /**
+     * Transport used to open HTTP connections. If null, the SDK uses {@link java.net.HttpURLConnection}.
+     */
+    @Nullable
+    final IterableHttpTransport httpTransport;
+
+    /**
+     * Maximum size in bytes of the in-app HTML kept in memory.
+     */
+    final int inAppHtmlCacheSize;
+
+    /**
+     * Creates a WebView in advance, so in-app messages are displayed faster.
+     */
+    final boolean enableWebViewWarmUp;
+
+    /**
+     * Disk budget in bytes for prefetched in-app message assets. 0 disables prefetching.
+     */
+    final long inAppAssetCacheSize;
+
     /**
      * Get the configured WebView base URL
      * @return Base URL for WebView content, or null if not configured
@@ -190,6 +247,16 @@ public class IterableConfig {
         mobileFrameworkInfo = builder.mobileFrameworkInfo;
         webViewBaseUrl = builder.webViewBaseUrl;
         inAppDisplayMode = builder.inAppDisplayMode;
+        offlineTaskBatchSize = builder.offlineTaskBatchSize;
+        offlineQueueOverflowPolicy = builder.offlineQueueOverflowPolicy;
+        offlineProcessingConcurrency = builder.offlineProcessingConcurrency;
+        enableBackgroundOfflineProcessing = builder.enableBackgroundOfflineProcessing;
+        enableRequestCompression = builder.enableRequestCompression;
+        networkExecutor = builder.networkExecutor;
+        httpTransport = builder.httpTransport;
+        inAppHtmlCacheSize = builder.inAppHtmlCacheSize;
+        enableWebViewWarmUp = builder.enableWebViewWarmUp;
+        inAppAssetCacheSize = builder.inAppAssetCacheSize;
     }
 
     public static class Builder {
@@ -219,6 +286,16 @@ public class IterableConfig {
         private IterableUnknownUserHandler iterableUnknownUserHandler;
         private String webViewBaseUrl;
         private IterableInAppDisplayMode inAppDisplayMode = IterableInAppDisplayMode.FORCE_EDGE_TO_EDGE;
+        private int offlineTaskBatchSize = 1;
+        private IterableOfflineQueueOverflowPolicy offlineQueueOverflowPolicy = IterableOfflineQueueOverflowPolicy.SEND_IMMEDIATELY;
+        private int offlineProcessingConcurrency = 1;
+        private boolean enableBackgroundOfflineProcessing = false;
+        private boolean enableRequestCompression = false;
+        private Executor networkExecutor;
+        private IterableHttpTransport httpTransport;
+        private int inAppHtmlCacheSize = IterableInAppHTMLCache.DEFAULT_MAX_SIZE_BYTES;
+        private boolean enableWebViewWarmUp = false;
+        private long inAppAssetCacheSize = 0;
 
         public Builder() {}
 
@@ -484,6 +561,129 @@ public class IterableConfig {
             return this;
         }
 
+        /**
+         * Set the maximum number of queued offline events that can be sent together in a single
+         * bulk request when the offline queue is processed. Only consecutive `track` events
+         * are batched; other requests are always sent individually.
+         * @param offlineTaskBatchSize maximum batch size, defaults to 1 (batching disabled)
+         */
+        @NonNull
+        public Builder setOfflineTaskBatchSize(int offlineTaskBatchSize) {
+            this.offlineTaskBatchSize = offlineTaskBatchSize;
+            return this;
+        }
+
+        /**
+         * Set what happens to new offline requests when the offline queue is full.
+         * @param offlineQueueOverflowPolicy overflow policy, defaults to
+         *                                   {@link IterableOfflineQueueOverflowPolicy#SEND_IMMEDIATELY}
+         */
+        @NonNull
+        public Builder setOfflineQueueOverflowPolicy(@NonNull IterableOfflineQueueOverflowPolicy offlineQueueOverflowPolicy) {
+            this.offlineQueueOverflowPolicy = offlineQueueOverflowPolicy;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of queued offline requests that can be sent concurrently when
+         * the offline queue is processed. Cart updates and purchases are still sent one at a time
+         * and in order; other events can be sent alongside them.
+         * @param offlineProcessingConcurrency maximum number of concurrent requests, defaults to 1
+         */
+        @NonNull
+        public Builder setOfflineProcessingConcurrency(int offlineProcessingConcurrency) {
+            this.offlineProcessingConcurrency = offlineProcessingConcurrency;
+            return this;
+        }
+
+        /**
+         * Allows sending queued offline requests after the app goes to the background. The queue
+         * is drained by a WorkManager job that runs when the device is connected to a network
+         * and the battery is not low.
+         * @param enableBackgroundOfflineProcessing `true` to send queued requests in the background
+         */
+        @NonNull
+        public Builder setEnableBackgroundOfflineProcessing(boolean enableBackgroundOfflineProcessing) {
+            this.enableBackgroundOfflineProcessing = enableBackgroundOfflineProcessing;
+            return this;
+        }
+
+        /**
+         * Allows gzip compression of network traffic. Request bodies larger than 1 KB are sent
+         * gzip-compressed, and GET requests such as in-app and embedded message fetches ask for
+         * gzip-compressed responses.
+         * @param enableRequestCompression `true` to compress requests and responses
+         */
+        @NonNull
+        public Builder setEnableRequestCompression(boolean enableRequestCompression) {
+            this.enableRequestCompression = enableRequestCompression;
+            return this;
+        }
+
+        /**
+         * Set the executor used to send network requests. By default, the SDK sends requests on
+         * its own bounded thread pool instead of the app-wide AsyncTask pool. Callbacks are
+         * always delivered on the main thread.
+         * @param networkExecutor executor for network requests
+         */
+        @NonNull
+        public Builder setNetworkExecutor(@NonNull Executor networkExecutor) {
+            this.networkExecutor = networkExecutor;
+            return this;
+        }
+
+        /**
+         * Set the transport used to open HTTP connections, e.g. to route SDK requests through the
+         * app's own HTTP client. By default, the SDK uses {@link java.net.HttpURLConnection} and
+         * keeps connections alive between requests.
+         * @param httpTransport transport for SDK requests
+         */
+        @NonNull
+        public Builder setHttpTransport(@NonNull IterableHttpTransport httpTransport) {
+            this.httpTransport = httpTransport;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of the in-app message HTML kept in memory. In-app messages are
+         * stored on disk, and the HTML of the most recently used messages is cached up to this
+         * size. The cache is trimmed when the system is low on memory. Default is 2 MB.
+         * Not used with {@link #setUseInMemoryStorageForInApps(boolean)}.
+         * @param inAppHtmlCacheSize maximum cache size in bytes
+         */
+        @NonNull
+        public Builder setInAppHtmlCacheSize(int inAppHtmlCacheSize) {
+            this.inAppHtmlCacheSize = inAppHtmlCacheSize;
+            return this;
+        }
+
+        /**
+         * Set whether the SDK should create a WebView in advance, while the main thread is idle
+         * after initialization. The first WebView in a process loads the WebView engine, which
+         * delays the first in-app message by a few hundred milliseconds on slower devices.
+         * A spare WebView is kept in memory while this is enabled. Disabled by default.
+         * @param enableWebViewWarmUp `true` to create WebViews in advance
+         */
+        @NonNull
+        public Builder setEnableWebViewWarmUp(boolean enableWebViewWarmUp) {
+            this.enableWebViewWarmUp = enableWebViewWarmUp;
+            return this;
+        }
+
+        /**
+         * Set the disk space the SDK may use to prefetch the images, stylesheets and scripts
+         * referenced by in-app messages. Assets are downloaded when messages are synced and
+         * served to the WebView from disk, so messages display fully on slow networks. When the
+         * budget is exceeded, the assets of the least recently displayed messages are deleted.
+         * Default is 0, which disables prefetching.
+         * @param inAppAssetCacheSize disk budget in bytes
+         */
+        @NonNull
+        public Builder setInAppAssetCacheSize(long inAppAssetCacheSize) {
+            this.inAppAssetCacheSize = inAppAssetCacheSize;
+            return this;
+        }
+
         @NonNull
         public IterableConfig build() {
             return new IterableConfig(this);
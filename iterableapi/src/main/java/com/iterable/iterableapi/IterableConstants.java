@@ -21,6 +21,13 @@ public final class IterableConstants {
     public static final String HEADER_SDK_VERSION       = "SDK-Version";
     public static final String HEADER_SDK_AUTHORIZATION = "Authorization";
     public static final String HEADER_SDK_AUTH_FORMAT   = "Bearer ";
+    public static final String HEADER_RETRY_AFTER       = "Retry-After";
+    public static final String HEADER_CONTENT_ENCODING  = "Content-Encoding";
+    public static final String HEADER_ACCEPT_ENCODING   = "Accept-Encoding";
+    public static final String HEADER_IF_NONE_MATCH     = "If-None-Match";
+    public static final String HEADER_ETAG              = "ETag";
+    public static final String KEY_ETAG                 = "eTag";
+    public static final String ENCODING_GZIP            = "gzip";
     public static final String HEADER_SDK_PROCESSOR_TYPE = "SDK-Request-Processor";
     public static final String KEY_APP_ALREADY_RUNNING  = "appAlreadyRunning";
     public static final String KEY_APPLICATION_NAME     = "applicationName";
@@ -34,6 +41,7 @@ public final class IterableConstants {
     public static final String KEY_EMAIL                = "email";
     public static final String KEY_EMAIL_LIST_IDS       = "emailListIds";
     public static final String KEY_EVENT_NAME           = "eventName";
+    public static final String KEY_EVENTS               = "events";
     public static final String KEY_ITEMS                = "items";
     public static final String KEY_NEW_EMAIL            = "newEmail";
     public static final String KEY_PACKAGE_NAME         = "packageName";
@@ -71,6 +79,7 @@ public final class IterableConstants {
     public static final String ENDPOINT_PUSH_TARGET             = "push/target";
     public static final String ENDPOINT_REGISTER_DEVICE_TOKEN   = "users/registerDeviceToken";
     public static final String ENDPOINT_TRACK                   = "events/track";
+    public static final String ENDPOINT_TRACK_BULK              = "events/trackBulk";
     public static final String ENDPOINT_TRACK_INAPP_CLICK       = "events/trackInAppClick";
     public static final String ENDPOINT_TRACK_INAPP_OPEN        = "events/trackInAppOpen";
     public static final String ENDPOINT_TRACK_INAPP_DELIVERY    = "events/trackInAppDelivery";
@@ -318,6 +327,9 @@ public final class IterableConstants {
 
     //Offline operation
     public static final long OFFLINE_TASKS_LIMIT                = 1000;
+    public static final String KEY_INVALID_EMAILS               = "invalidEmails";
+    public static final String KEY_INVALID_USER_IDS             = "invalidUserIds";
+    public static final String KEY_DISALLOWED_EVENT_NAMES       = "disallowedEventNames";
 
     // URL schemes
     public static final String URL_SCHEME_ITBL = "itbl://";
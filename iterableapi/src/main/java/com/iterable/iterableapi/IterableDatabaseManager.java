@@ -6,20 +6,53 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 class IterableDatabaseManager extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "iterable_sdk.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     IterableDatabaseManager(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // WAL lets the task runner read the queue while new tasks are being written and avoids
+        // a journal sync on every single-row commit
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create event table.
         db.execSQL("CREATE TABLE IF NOT EXISTS " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + IterableTaskStorage.OFFLINE_TASK_COLUMN_DATA);
+        createOfflineTaskIndexes(db);
+        createOfflineTaskHeaderTable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // No used for now.
+        if (oldVersion < 2) {
+            createOfflineTaskIndexes(db);
+        }
+        if (oldVersion < 3) {
+            // Existing rows keep the full request in the data column and are read as
+            // ENCODING_REQUEST_JSON since their encoding is null
+            db.execSQL("ALTER TABLE " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " ADD COLUMN " + IterableTaskStorage.HEADER_ID + " INTEGER");
+            db.execSQL("ALTER TABLE " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " ADD COLUMN " + IterableTaskStorage.ENCODING + " INTEGER");
+            createOfflineTaskHeaderTable(db);
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Rows written by a newer schema can't be read, e.g. compressed payloads that reference a
+        // header row, so the queued tasks are discarded and the tables are created again
+        IterableLogger.w("IterableDatabaseManager", "Downgrading database from version " + oldVersion + " to " + newVersion + ", discarding queued tasks");
+        db.execSQL("DROP TABLE IF EXISTS " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + IterableTaskStorage.ITERABLE_TASK_HEADER_TABLE_NAME);
+        onCreate(db);
+    }
+
+    private void createOfflineTaskIndexes(SQLiteDatabase db) {
+        db.execSQL(IterableTaskStorage.OFFLINE_TASK_INDEX_SCHEDULED);
+        db.execSQL(IterableTaskStorage.OFFLINE_TASK_INDEX_NAME);
+    }
+
+    private void createOfflineTaskHeaderTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + IterableTaskStorage.ITERABLE_TASK_HEADER_TABLE_NAME + IterableTaskStorage.OFFLINE_TASK_HEADER_COLUMN_DATA);
     }
 
 }
@@ -27,7 +27,7 @@ class IterableDeeplinkManager {
                 return;
             }
             if (isIterableDeeplink(url)) {
-                new RedirectTask(callback).execute(url);
+                new RedirectTask(callback).executeOnExecutor(IterableNetworkExecutor.getExecutor(), url);
             } else {
                 callback.execute(url);
             }
@@ -3,6 +3,7 @@ package com.iterable.iterableapi
 import android.content.Context
 import org.json.JSONException
 import org.json.JSONObject
+import java.net.HttpURLConnection
 
 public open class IterableEmbeddedManager : IterableActivityMonitor.AppStateCallback {
 
@@ -14,6 +15,11 @@ public open class IterableEmbeddedManager : IterableActivityMonitor.AppStateCall
     private var localPlacementMessagesMap = mutableMapOf<Long, List<IterableEmbeddedMessage>>()
     private var localPlacementIds = mutableListOf<Long>()
 
+    // ETag of the response the local messages were synced from, and the placements it was for.
+    // A sync for different placements changes the local messages, so it can't reuse the ETag.
+    private var lastSyncETag: String? = null
+    private var lastSyncPlacementIds: List<Long> = emptyList()
+
     private var updateHandleListeners = mutableListOf<IterableEmbeddedUpdateHandler>()
     private lateinit var iterableApi: IterableApi
     private lateinit var context: Context
@@ -78,6 +84,7 @@ public open class IterableEmbeddedManager : IterableActivityMonitor.AppStateCall
 
     open fun reset() {
         localPlacementMessagesMap = mutableMapOf()
+        lastSyncETag = null
     }
 
     open fun getPlacementIds(): List<Long> {
@@ -89,8 +96,16 @@ public open class IterableEmbeddedManager : IterableActivityMonitor.AppStateCall
         if (iterableApi.config.enableEmbeddedMessaging) {
             IterableLogger.v(TAG, "Syncing messages...")
 
-            IterableApi.sharedInstance.getEmbeddedMessages(placementIds, { data ->
+            val syncPlacementIds = placementIds.toList()
+            val eTag = if (syncPlacementIds == lastSyncPlacementIds) lastSyncETag else null
+
+            IterableApi.sharedInstance.getEmbeddedMessages(placementIds, eTag, { data ->
                 IterableLogger.v(TAG, "Got response from network call to get embedded messages")
+                if (data.optInt(IterableConstants.HTTP_STATUS_CODE) == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    IterableLogger.d(TAG, "Embedded messages have not changed since the last sync")
+                    notifySyncSucceeded()
+                    return@getEmbeddedMessages
+                }
                 try {
                     val previousPlacementIds = getPlacementIds()
                     val currentPlacementIds: MutableList<Long> = mutableListOf()
@@ -140,6 +155,8 @@ public open class IterableEmbeddedManager : IterableActivityMonitor.AppStateCall
 
                     //store placements from payload for next comparison
                     localPlacementIds = currentPlacementIds
+                    lastSyncETag = data.optString(IterableConstants.KEY_ETAG, null)
+                    lastSyncPlacementIds = syncPlacementIds
 
                     notifySyncSucceeded()
                 } catch (e: JSONException) {
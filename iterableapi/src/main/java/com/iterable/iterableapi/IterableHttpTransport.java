@@ -0,0 +1,33 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens and releases the HTTP connections used to send SDK requests.
+ * The default implementation uses the platform {@link HttpURLConnection} connection pool.
+ * Apps can provide their own implementation through
+ * {@link IterableConfig.Builder#setHttpTransport(IterableHttpTransport)}.
+ */
+public interface IterableHttpTransport {
+
+    /**
+     * Open a connection to the given URL. The SDK sets the request method, headers and timeouts
+     * on the returned connection.
+     * @param url request URL
+     * @return an unconnected {@link HttpURLConnection}
+     */
+    @NonNull
+    HttpURLConnection openConnection(@NonNull URL url) throws IOException;
+
+    /**
+     * Called once the SDK is done with a connection.
+     * @param connection connection returned by {@link #openConnection(URL)}
+     * @param reusable true if the response body was fully read and closed, so the underlying
+     *                 socket can go back to the pool; false if the connection should be closed
+     */
+    void releaseConnection(@NonNull HttpURLConnection connection, boolean reusable);
+}
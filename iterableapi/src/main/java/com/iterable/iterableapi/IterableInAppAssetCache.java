@@ -0,0 +1,383 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.iterable.iterableapi.util.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Downloads the images, stylesheets and scripts referenced by in-app HTML when a message is
+ * stored, so the message can be displayed without waiting for the network. Assets are stored in
+ * an {@code assets} folder inside the message's folder. When the assets of all messages exceed
+ * the disk budget, the assets of the least recently used messages are deleted first. The last use
+ * time is written to a marker file in the assets folder rather than relying on the folder's
+ * modification time, which can't be set on all file systems.
+ */
+class IterableInAppAssetCache {
+    private static final String TAG = "IterableInAppAssetCache";
+    private static final String FOLDER_PATH = "IterableInAppFileStorage";
+    private static final String ASSETS_FOLDER = "assets";
+    private static final String CONTENT_TYPE_SUFFIX = ".type";
+    private static final String ALLOWED_ORIGIN_SUFFIX = ".cors";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String LAST_USED_FILE = ".lastused";
+
+    static final int MAX_ASSETS_PER_MESSAGE = 20;
+    static final long MAX_ASSET_SIZE_BYTES = 2 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 10000;
+    private static final long LAST_USED_UPDATE_INTERVAL_MS = 60 * 1000;
+
+    private static final Pattern[] ASSET_URL_PATTERNS = {
+            Pattern.compile("<(?:img|script|source)\\b[^>]*?\\bsrc\\s*=\\s*[\"'](https?://[^\"']+)[\"']", Pattern.CASE_INSENSITIVE),
+            Pattern.compile("<link\\b[^>]*?\\bhref\\s*=\\s*[\"'](https?://[^\"']+)[\"']", Pattern.CASE_INSENSITIVE),
+            Pattern.compile("url\\(\\s*[\"']?(https?://[^\"')\\s]+)[\"']?\\s*\\)", Pattern.CASE_INSENSITIVE)
+    };
+
+    private static IterableInAppAssetCache sharedInstance;
+
+    private final File rootFolder;
+    private volatile long maxSizeBytes;
+    private final Executor executor;
+    // When the last use of each message's assets was recorded, so that serving every asset of a
+    // message doesn't rewrite the marker file
+    private final Map<String, Long> lastUsedUpdateTimes = new ConcurrentHashMap<>();
+
+    @VisibleForTesting
+    IterableInAppAssetCache(@NonNull File rootFolder, long maxSizeBytes, @NonNull Executor executor) {
+        this.rootFolder = rootFolder;
+        this.maxSizeBytes = maxSizeBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the asset cache, or null if asset prefetching is disabled in {@link IterableConfig}
+     */
+    @Nullable
+    static synchronized IterableInAppAssetCache getInstance(@NonNull Context context) {
+        IterableConfig config = IterableApi.getInstance().config;
+        long maxSizeBytes = config != null ? config.inAppAssetCacheSize : 0;
+        if (maxSizeBytes <= 0) {
+            return null;
+        }
+        if (sharedInstance == null) {
+            File sdkFilesDirectory = IterableUtil.getSDKFilesDirectory(context);
+            sharedInstance = new IterableInAppAssetCache(IterableUtil.getDirectory(sdkFilesDirectory, FOLDER_PATH),
+                    maxSizeBytes, Executors.newSingleThreadExecutor());
+        } else {
+            // The same executor is kept when the budget changes; the new budget applies from the next eviction
+            sharedInstance.maxSizeBytes = maxSizeBytes;
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Downloads the assets referenced by the HTML in the background
+     * @param messageId in-app message ID
+     * @param html      in-app message HTML
+     */
+    void prefetchAssets(@NonNull final String messageId, @NonNull String html) {
+        final Set<String> assetUrls = findAssetUrls(html);
+        if (assetUrls.isEmpty()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                downloadAssets(messageId, assetUrls);
+            }
+        });
+    }
+
+    /**
+     * Returns the stored asset for the URL, and marks the message's assets as recently used
+     * @return asset file, or null if the asset hasn't been downloaded
+     */
+    @Nullable
+    File getAsset(@NonNull String messageId, @NonNull String url) {
+        File assetsFolder = getAssetsFolder(messageId);
+        File assetFile = new File(assetsFolder, getAssetFileName(url));
+        if (!assetFile.exists()) {
+            return null;
+        }
+        long now = IterableUtil.currentTimeMillis();
+        Long lastUpdate = lastUsedUpdateTimes.get(messageId);
+        if (lastUpdate == null || now - lastUpdate >= LAST_USED_UPDATE_INTERVAL_MS) {
+            markUsed(messageId, assetsFolder);
+        }
+        return assetFile;
+    }
+
+    /**
+     * @return content type of a file returned by {@link #getAsset(String, String)}
+     */
+    @Nullable
+    String getContentType(@NonNull File assetFile) {
+        return readHeaderFile(assetFile, CONTENT_TYPE_SUFFIX);
+    }
+
+    /**
+     * @return Access-Control-Allow-Origin header that the server sent with a file returned by
+     * {@link #getAsset(String, String)}, or null if the server didn't allow cross-origin access
+     */
+    @Nullable
+    String getAllowedOrigin(@NonNull File assetFile) {
+        return readHeaderFile(assetFile, ALLOWED_ORIGIN_SUFFIX);
+    }
+
+    @NonNull
+    static Set<String> findAssetUrls(@NonNull String html) {
+        Set<String> assetUrls = new LinkedHashSet<>();
+        for (Pattern pattern : ASSET_URL_PATTERNS) {
+            Matcher matcher = pattern.matcher(html);
+            while (matcher.find() && assetUrls.size() < MAX_ASSETS_PER_MESSAGE) {
+                assetUrls.add(matcher.group(1).replace("&amp;", "&"));
+            }
+        }
+        return assetUrls;
+    }
+
+    @WorkerThread
+    private void downloadAssets(@NonNull String messageId, @NonNull Set<String> assetUrls) {
+        File messageFolder = new File(rootFolder, messageId);
+        if (!messageFolder.isDirectory()) {
+            // The message was removed before its assets were downloaded
+            return;
+        }
+        File assetsFolder = getAssetsFolder(messageId);
+        if (!assetsFolder.isDirectory() && !assetsFolder.mkdir()) {
+            IterableLogger.e(TAG, "Failed to create folder for in-app assets");
+            return;
+        }
+
+        int downloadedCount = 0;
+        for (String url : assetUrls) {
+            File assetFile = new File(assetsFolder, getAssetFileName(url));
+            if (!assetFile.exists() && downloadAsset(url, assetFile)) {
+                downloadedCount++;
+            }
+        }
+        IterableLogger.d(TAG, "Downloaded " + downloadedCount + " of " + assetUrls.size() + " in-app assets");
+
+        markUsed(messageId, assetsFolder);
+        evictAssets();
+    }
+
+    private boolean downloadAsset(@NonNull String url, @NonNull File assetFile) {
+        IterableHttpTransport transport = IterableUrlConnectionTransport.getTransport();
+        HttpURLConnection connection = null;
+        // Set once the response body has been fully read, so the connection can be kept alive
+        boolean connectionReusable = false;
+        InputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        File tempFile = new File(assetFile.getPath() + TEMP_FILE_SUFFIX);
+        try {
+            connection = transport.openConnection(new URL(url));
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return false;
+            }
+            if (connection.getContentLength() > MAX_ASSET_SIZE_BYTES) {
+                return false;
+            }
+
+            inputStream = connection.getInputStream();
+            outputStream = new FileOutputStream(tempFile);
+            byte[] buffer = new byte[8192];
+            long totalBytes = 0;
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                totalBytes += bytesRead;
+                if (totalBytes > MAX_ASSET_SIZE_BYTES) {
+                    throw new IOException("Asset is larger than " + MAX_ASSET_SIZE_BYTES + " bytes");
+                }
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            inputStream.close();
+            inputStream = null;
+            connectionReusable = true;
+            outputStream.getFD().sync();
+            outputStream.close();
+            outputStream = null;
+
+            writeHeaderFile(assetFile, CONTENT_TYPE_SUFFIX, connection.getContentType());
+            writeHeaderFile(assetFile, ALLOWED_ORIGIN_SUFFIX, connection.getHeaderField("Access-Control-Allow-Origin"));
+            if (!tempFile.renameTo(assetFile)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+            return true;
+        } catch (Exception e) {
+            IterableLogger.w(TAG, "Failed to download in-app asset", e);
+            tempFile.delete();
+            return false;
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+            IOUtils.closeQuietly(inputStream);
+            if (connection != null) {
+                transport.releaseConnection(connection, connectionReusable);
+            }
+        }
+    }
+
+    // Response headers are stored next to the asset so that they can be replayed when it's served
+    private static void writeHeaderFile(@NonNull File assetFile, @NonNull String suffix, @Nullable String value) {
+        File headerFile = new File(assetFile.getPath() + suffix);
+        if (value != null) {
+            IterableUtil.writeFile(headerFile, value);
+        } else {
+            headerFile.delete();
+        }
+    }
+
+    @Nullable
+    private static String readHeaderFile(@NonNull File assetFile, @NonNull String suffix) {
+        File headerFile = new File(assetFile.getPath() + suffix);
+        return headerFile.exists() ? IterableUtil.readFile(headerFile) : null;
+    }
+
+    // Deletes the assets of the least recently used messages until the total size fits the budget
+    @WorkerThread
+    private void evictAssets() {
+        File[] messageFolders = rootFolder.listFiles();
+        if (messageFolders == null) {
+            return;
+        }
+
+        List<File> assetsFolders = new ArrayList<>();
+        final Map<File, Long> lastUsedTimes = new HashMap<>();
+        long totalSize = 0;
+        for (File messageFolder : messageFolders) {
+            File assetsFolder = new File(messageFolder, ASSETS_FOLDER);
+            if (assetsFolder.isDirectory()) {
+                assetsFolders.add(assetsFolder);
+                lastUsedTimes.put(assetsFolder, getLastUsed(assetsFolder));
+                totalSize += getFolderSize(assetsFolder);
+            }
+        }
+
+        Collections.sort(assetsFolders, new Comparator<File>() {
+            @Override
+            public int compare(File folder1, File folder2) {
+                return Long.compare(lastUsedTimes.get(folder1), lastUsedTimes.get(folder2));
+            }
+        });
+
+        for (File assetsFolder : assetsFolders) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            totalSize -= getFolderSize(assetsFolder);
+            deleteFolder(assetsFolder);
+            lastUsedUpdateTimes.remove(assetsFolder.getParentFile().getName());
+            IterableLogger.d(TAG, "Evicted in-app assets to stay within the disk budget");
+        }
+    }
+
+    private void markUsed(@NonNull String messageId, @NonNull File assetsFolder) {
+        long now = IterableUtil.currentTimeMillis();
+        if (IterableUtil.writeFile(new File(assetsFolder, LAST_USED_FILE), String.valueOf(now))) {
+            lastUsedUpdateTimes.put(messageId, now);
+        } else {
+            IterableLogger.w(TAG, "Failed to record the last use of in-app assets");
+        }
+    }
+
+    /**
+     * @return the time the assets were last used, or 0 if it wasn't recorded, so that those
+     * assets are evicted first
+     */
+    private static long getLastUsed(@NonNull File assetsFolder) {
+        File lastUsedFile = new File(assetsFolder, LAST_USED_FILE);
+        if (!lastUsedFile.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(IterableUtil.readFile(lastUsedFile).trim());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    @NonNull
+    private File getAssetsFolder(@NonNull String messageId) {
+        return new File(new File(rootFolder, messageId), ASSETS_FOLDER);
+    }
+
+    private static long getFolderSize(@NonNull File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the folder and the files in it
+     */
+    static void deleteFolder(@NonNull File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @VisibleForTesting
+    long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    @VisibleForTesting
+    static synchronized void reset() {
+        sharedInstance = null;
+    }
+
+    @NonNull
+    private static String getAssetFileName(@NonNull String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(UTF_8));
+            StringBuilder fileName = new StringBuilder();
+            for (byte b : Arrays.copyOf(digest, 16)) {
+                fileName.append(String.format(Locale.US, "%02x", b));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
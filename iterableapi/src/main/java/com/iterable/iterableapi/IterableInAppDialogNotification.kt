@@ -294,7 +294,8 @@ class IterableInAppDialogNotification internal constructor(
         webView = webViewService.createConfiguredWebView(
             context,
             this@IterableInAppDialogNotification,
-            htmlString ?: ""
+            htmlString ?: "",
+            message.messageId
         )
         
         val frameLayout = FrameLayout(context)
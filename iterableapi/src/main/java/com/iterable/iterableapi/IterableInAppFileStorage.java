@@ -5,6 +5,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -17,21 +18,67 @@ import org.json.JSONObject;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores each message in its own folder: the metadata in {@code metadata.json} and the HTML in
+ * {@code index.html}. Only the messages that changed since the last save are written, and the
+ * ordered list of message IDs is only written when messages are added or removed.
+ * Messages are loaded in the background when the storage is created. Background threads wait
+ * for the load to finish when they access the messages; the main thread never waits, it sees the
+ * messages added since the storage was created until the stored messages are merged with them.
+ */
 public class IterableInAppFileStorage implements IterableInAppStorage, IterableInAppMessage.OnChangeListener {
     private static final String TAG = "IterableInAppFileStorage";
     private static final String FOLDER_PATH = "IterableInAppFileStorage";
     private static final String INDEX_FILE = "index.html";
+    private static final String METADATA_FILE = "metadata.json";
+    private static final String MESSAGE_IDS_FILE = "itbl_inapp_ids.json";
+    private static final String LEGACY_STORAGE_FILE = "itbl_inapp.json";
+    private static final String KEY_MESSAGE_IDS = "messageIds";
     private static final int OPERATION_SAVE = 100;
+    private static final int OPERATION_LOAD = 101;
+    private static final long LOAD_TIMEOUT_SECONDS = 5;
 
     private final Context context;
 
     private Map<String, IterableInAppMessage> messages =
             Collections.synchronizedMap(new LinkedHashMap<String, IterableInAppMessage>());
 
+    // Messages whose metadata or HTML has to be written on the next save
+    private final Set<String> dirtyMessageIds = new HashSet<>();
+
+    // Whether messages were added or removed since the last save
+    private boolean messageIdsChanged = false;
+
+    // Whether the messages were loaded from the legacy single-file storage
+    private boolean hasLegacyStorage = false;
+
+    private final CountDownLatch loadLatch = new CountDownLatch(1);
+
+    // Whether the stored messages have been merged into the messages map
+    private boolean loaded = false;
+
+    // Messages removed before the stored messages were loaded, they are not loaded again
+    private final Set<String> removedMessageIds = new HashSet<>();
+
+    // Callbacks waiting for the stored messages to load, null once they have all run
+    @Nullable
+    private List<Runnable> loadCallbacks = new ArrayList<>();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @VisibleForTesting
+    final IterableInAppHTMLCache htmlCache;
+
+    private final IterableInAppMessageIndex index = new IterableInAppMessageIndex();
+
     private final HandlerThread fileOperationThread = new HandlerThread("FileOperationThread");
 
     @VisibleForTesting
@@ -40,38 +87,107 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
     IterableInAppFileStorage(Context context) {
         this.context = context;
 
+        IterableConfig config = IterableApi.getInstance().config;
+        htmlCache = new IterableInAppHTMLCache(config != null ? config.inAppHtmlCacheSize : IterableInAppHTMLCache.DEFAULT_MAX_SIZE_BYTES);
+        IterableInAppHTMLCache.registerForTrimMemory(context, htmlCache);
+
         fileOperationThread.start();
         fileOperationHandler = new FileOperationHandler(fileOperationThread.getLooper());
 
-        load();
+        // Reading and parsing the messages is kept off the thread that initializes the SDK
+        fileOperationHandler.sendEmptyMessage(OPERATION_LOAD);
     }
 
     //region IterableInAppStorage interface implementation
     @NonNull
     @Override
-    public synchronized List<IterableInAppMessage> getMessages() {
-        return new ArrayList<>(messages.values());
+    public List<IterableInAppMessage> getMessages() {
+        awaitLoad();
+        synchronized (this) {
+            return new ArrayList<>(messages.values());
+        }
     }
 
     @Nullable
     @Override
-    public synchronized IterableInAppMessage getMessage(@NonNull String messageId) {
-        return messages.get(messageId);
+    public IterableInAppMessage getMessage(@NonNull String messageId) {
+        awaitLoad();
+        synchronized (this) {
+            return messages.get(messageId);
+        }
     }
 
     @Override
-    public synchronized void addMessage(@NonNull IterableInAppMessage message) {
-        messages.put(message.getMessageId(), message);
-        message.setOnChangeListener(this);
-        saveMessagesInBackground();
+    public void addMessage(@NonNull IterableInAppMessage message) {
+        awaitLoad();
+        synchronized (this) {
+            putMessage(message);
+            dirtyMessageIds.add(message.getMessageId());
+            messageIdsChanged = true;
+            saveMessagesInBackground();
+        }
     }
 
     @Override
-    public synchronized void removeMessage(@NonNull IterableInAppMessage message) {
-        message.setOnChangeListener(null);
-        removeHTML(message.getMessageId());
-        messages.remove(message.getMessageId());
-        saveMessagesInBackground();
+    public void removeMessage(@NonNull IterableInAppMessage message) {
+        awaitLoad();
+        synchronized (this) {
+            message.setOnChangeListener(null);
+            removeHTML(message.getMessageId());
+            messages.remove(message.getMessageId());
+            if (!loaded) {
+                removedMessageIds.add(message.getMessageId());
+            }
+            index.remove(message);
+            dirtyMessageIds.remove(message.getMessageId());
+            messageIdsChanged = true;
+            saveMessagesInBackground();
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<IterableInAppMessage> getInboxMessages() {
+        awaitLoad();
+        synchronized (this) {
+            return index.getInboxMessages();
+        }
+    }
+
+    @Override
+    public int getUnreadInboxMessagesCount() {
+        awaitLoad();
+        synchronized (this) {
+            return index.getUnreadInboxMessagesCount();
+        }
+    }
+
+    @Override
+    public long getNextExpiryTime() {
+        awaitLoad();
+        synchronized (this) {
+            return index.getNextExpiryTime();
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<IterableInAppMessage> getExpiredMessages(long currentTimeMillis) {
+        awaitLoad();
+        synchronized (this) {
+            return index.getExpiredMessages(currentTimeMillis);
+        }
+    }
+
+    @Override
+    public void whenLoaded(@NonNull Runnable callback) {
+        synchronized (this) {
+            if (loadCallbacks != null) {
+                loadCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
     }
 
     @Override
@@ -83,6 +199,11 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         }
 
         File file = new File(folder, INDEX_FILE);
+        if (file.exists()) {
+            IterableLogger.v(TAG, "HTML content already exists. No need to store again");
+            return;
+        }
+
         boolean result = IterableUtil.writeFile(file, contentHTML);
         if (!result) {
             IterableLogger.e(TAG, "Failed to store HTML content");
@@ -92,12 +213,19 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
     @Nullable
     @Override
     public String getHTML(@NonNull String messageID) {
-        File file = getFileForContent(messageID);
-        return IterableUtil.readFile(file);
+        String html = htmlCache.get(messageID);
+        if (html == null) {
+            html = IterableUtil.readFile(getFileForContent(messageID));
+            if (html != null) {
+                htmlCache.put(messageID, html);
+            }
+        }
+        return html;
     }
 
     @Override
     public void removeHTML(@NonNull String messageID) {
+        htmlCache.remove(messageID);
         File folder = getFolderForMessage(messageID);
 
         File[] files = folder.listFiles();
@@ -106,7 +234,12 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         }
 
         for (File file : files) {
-            file.delete();
+            if (file.isDirectory()) {
+                // Assets prefetched by IterableInAppAssetCache
+                IterableInAppAssetCache.deleteFolder(file);
+            } else {
+                file.delete();
+            }
         }
         folder.delete();
     }
@@ -114,40 +247,70 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
 
     //region In-App Lifecycle
     @Override
-    public void onInAppMessageChanged(@NonNull IterableInAppMessage message) {
-        saveMessagesInBackground();
+    public synchronized void onInAppMessageChanged(@NonNull IterableInAppMessage message) {
+        if (messages.containsKey(message.getMessageId())) {
+            index.update(message);
+            dirtyMessageIds.add(message.getMessageId());
+            saveMessagesInBackground();
+        }
     }
 
-    private synchronized void clearMessages() {
-        for (Map.Entry<String, IterableInAppMessage> entry : messages.entrySet()) {
-            IterableInAppMessage message = entry.getValue();
-            message.setOnChangeListener(null);
-        }
+    /**
+     * Merges the messages loaded from disk with the messages added or removed before the load
+     * finished. Messages added in the meantime replace the stored ones and come after them, and
+     * removed messages are not loaded again.
+     */
+    @VisibleForTesting
+    synchronized void mergeStoredMessages(@NonNull List<IterableInAppMessage> storedMessages) {
+        Map<String, IterableInAppMessage> addedMessages = new LinkedHashMap<>(messages);
         messages.clear();
+        index.clear();
+        for (IterableInAppMessage storedMessage : storedMessages) {
+            String messageId = storedMessage.getMessageId();
+            if (removedMessageIds.contains(messageId)) {
+                messageIdsChanged = true;
+                continue;
+            }
+            IterableInAppMessage addedMessage = addedMessages.remove(messageId);
+            putMessage(addedMessage != null ? addedMessage : storedMessage);
+        }
+        for (IterableInAppMessage addedMessage : addedMessages.values()) {
+            putMessage(addedMessage);
+        }
+    }
+
+    private synchronized void putMessage(@NonNull IterableInAppMessage message) {
+        IterableInAppMessage previousMessage = messages.put(message.getMessageId(), message);
+        if (previousMessage != null) {
+            previousMessage.setOnChangeListener(null);
+            index.remove(previousMessage);
+        }
+        message.setOnChangeListener(this);
+        index.add(message);
     }
     //endregion
 
     //region JSON Parsing
     @NonNull
-    private JSONObject serializeMessages() {
+    private JSONObject serializeMessageIds() {
         JSONObject jsonData = new JSONObject();
-        JSONArray messagesJson = new JSONArray();
+        JSONArray messageIdsJson = new JSONArray();
 
         try {
-            for (Map.Entry<String, IterableInAppMessage> entry : messages.entrySet()) {
-                IterableInAppMessage message = entry.getValue();
-                messagesJson.put(message.toJSONObject());
+            for (String messageId : messages.keySet()) {
+                messageIdsJson.put(messageId);
             }
-            jsonData.putOpt("inAppMessages", messagesJson);
+            jsonData.putOpt(KEY_MESSAGE_IDS, messageIdsJson);
         } catch (JSONException e) {
-            IterableLogger.e(TAG, "Error while serializing messages", e);
+            IterableLogger.e(TAG, "Error while serializing message IDs", e);
         }
 
         return jsonData;
     }
 
-    private void loadMessagesFromJson(JSONObject jsonData) {
-        clearMessages();
+    @NonNull
+    private List<IterableInAppMessage> loadMessagesFromJson(JSONObject jsonData) {
+        List<IterableInAppMessage> storedMessages = new ArrayList<>();
         JSONArray messagesJson = jsonData.optJSONArray("inAppMessages");
         if (messagesJson != null) {
             for (int i = 0; i < messagesJson.length(); i++) {
@@ -156,29 +319,185 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
                 if (messageJson != null) {
                     IterableInAppMessage message = IterableInAppMessage.fromJSONObject(messageJson, this);
                     if (message != null) {
-                        message.setOnChangeListener(this);
-                        messages.put(message.getMessageId(), message);
+                        storedMessages.add(message);
                     }
                 }
             }
         }
+        return storedMessages;
+    }
+
+    @NonNull
+    private List<IterableInAppMessage> loadMessagesFromFolders(@NonNull JSONArray messageIdsJson) {
+        List<IterableInAppMessage> storedMessages = new ArrayList<>();
+        for (int i = 0; i < messageIdsJson.length(); i++) {
+            String messageId = messageIdsJson.optString(i, null);
+            if (messageId == null) {
+                continue;
+            }
+
+            IterableInAppMessage message = loadMessage(messageId);
+            if (message != null) {
+                storedMessages.add(message);
+            } else {
+                IterableLogger.e(TAG, "Could not load in-app message " + messageId);
+            }
+        }
+        return storedMessages;
+    }
+
+    @Nullable
+    private IterableInAppMessage loadMessage(@NonNull String messageId) {
+        File metadataFile = getFileForMetadata(messageId);
+        if (!metadataFile.exists()) {
+            return null;
+        }
+        try {
+            String metadata = IterableUtil.readFileWithChecksum(metadataFile);
+            if (metadata == null) {
+                return null;
+            }
+            return IterableInAppMessage.fromJSONObject(new JSONObject(metadata), this);
+        } catch (JSONException e) {
+            IterableLogger.e(TAG, "Error while parsing in-app message metadata", e);
+            return null;
+        }
     }
     //endregion
 
     //region File Saving/Loading
+    // Callers must not hold the storage lock while waiting, load() needs it to finish. The main
+    // thread doesn't wait, mergeStoredMessages() keeps the changes it makes before the load ends.
+    private void awaitLoad() {
+        Looper looper = Looper.myLooper();
+        if (looper == fileOperationThread.getLooper() || looper == Looper.getMainLooper()) {
+            return;
+        }
+        try {
+            if (!loadLatch.await(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                IterableLogger.e(TAG, "Timed out waiting for in-app messages to load");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Files are read without holding the storage lock, so that the main thread can keep using
+    // the storage while the messages are loading
     private void load() {
+        long startTime = SystemClock.elapsedRealtime();
+        List<IterableInAppMessage> storedMessages = new ArrayList<>();
+        boolean storedMessageIdsChanged = false;
+        boolean legacyStorage = false;
         try {
-            File inAppStorageFile = getInAppStorageFile();
-            if (inAppStorageFile.exists()) {
-                JSONObject jsonData = new JSONObject(IterableUtil.readFile(inAppStorageFile));
-                loadMessagesFromJson(jsonData);
+            File messageIdsFile = getMessageIdsFile();
+            if (messageIdsFile.exists()) {
+                JSONArray messageIds = readMessageIds(messageIdsFile);
+                if (messageIds == null) {
+                    IterableLogger.e(TAG, "In-app message IDs are corrupted, recovering messages from their folders");
+                    messageIds = findStoredMessageIds();
+                    storedMessageIdsChanged = true;
+                }
+                storedMessages = loadMessagesFromFolders(messageIds);
+                if (storedMessages.size() != messageIds.length()) {
+                    storedMessageIdsChanged = true;
+                }
+            } else if (getInAppStorageFile().exists()) {
+                JSONObject jsonData = new JSONObject(IterableUtil.readFile(getInAppStorageFile()));
+                storedMessages = loadMessagesFromJson(jsonData);
+                legacyStorage = true;
             } else if (getInAppCacheStorageFile().exists()) {
                 JSONObject jsonData = new JSONObject(IterableUtil.readFile(getInAppCacheStorageFile()));
-                loadMessagesFromJson(jsonData);
+                storedMessages = loadMessagesFromJson(jsonData);
+                legacyStorage = true;
             }
         } catch (Exception e) {
             IterableLogger.e(TAG, "Error while loading in-app messages from file", e);
         }
+
+        synchronized (this) {
+            mergeStoredMessages(storedMessages);
+            if (legacyStorage) {
+                migrateLegacyStorage();
+            }
+            if (storedMessageIdsChanged) {
+                messageIdsChanged = true;
+            }
+            if (messageIdsChanged) {
+                saveMessagesInBackground();
+            }
+        }
+        IterableLogger.d(TAG, "Loaded " + storedMessages.size() + " in-app messages in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+    }
+
+    private void onLoadFinished() {
+        synchronized (this) {
+            loaded = true;
+            removedMessageIds.clear();
+        }
+        loadLatch.countDown();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runLoadCallbacks();
+            }
+        });
+    }
+
+    // Callbacks added while these run are run after them, so callbacks always run in order
+    private void runLoadCallbacks() {
+        while (true) {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = loadCallbacks;
+                if (callbacks == null || callbacks.isEmpty()) {
+                    loadCallbacks = null;
+                    return;
+                }
+                loadCallbacks = new ArrayList<>();
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    @Nullable
+    private JSONArray readMessageIds(@NonNull File messageIdsFile) {
+        String messageIds = IterableUtil.readFileWithChecksum(messageIdsFile);
+        if (messageIds == null) {
+            return null;
+        }
+        try {
+            return new JSONObject(messageIds).getJSONArray(KEY_MESSAGE_IDS);
+        } catch (JSONException e) {
+            IterableLogger.e(TAG, "Error while parsing in-app message IDs", e);
+            return null;
+        }
+    }
+
+    // Every message has its own folder, so the messages can still be found if the list of
+    // message IDs is lost, only their original order is not known
+    @NonNull
+    private JSONArray findStoredMessageIds() {
+        JSONArray messageIds = new JSONArray();
+        File[] folders = getInAppContentFolder().listFiles();
+        if (folders != null) {
+            for (File folder : folders) {
+                if (folder.isDirectory()) {
+                    messageIds.put(folder.getName());
+                }
+            }
+        }
+        return messageIds;
+    }
+
+    // Messages loaded from the single-file storage are written to their folders on the next save,
+    // and the legacy file is deleted afterwards
+    private void migrateLegacyStorage() {
+        hasLegacyStorage = true;
+        dirtyMessageIds.addAll(messages.keySet());
+        messageIdsChanged = true;
     }
 
     private void saveMessagesInBackground() {
@@ -188,50 +507,83 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
     }
 
     private synchronized void saveMessages() {
-        saveHTMLContent();
-        saveMetadata();
+        for (String messageId : dirtyMessageIds) {
+            IterableInAppMessage message = messages.get(messageId);
+            if (message != null) {
+                saveHTMLContent(message);
+                saveMetadata(message);
+            }
+        }
+        dirtyMessageIds.clear();
+
+        if (messageIdsChanged) {
+            saveMessageIds();
+            messageIdsChanged = false;
+        }
+
+        if (hasLegacyStorage) {
+            getInAppStorageFile().delete();
+            getInAppCacheStorageFile().delete();
+            hasLegacyStorage = false;
+        }
     }
 
-    private synchronized void saveHTMLContent() {
-        for (IterableInAppMessage message : messages.values()) {
-            if (message.hasLoadedHtmlFromJson()) {
-                saveHTML(message.getMessageId(), message.getContent().html);
-                message.setLoadedHtmlFromJson(false);
+    private void saveHTMLContent(@NonNull IterableInAppMessage message) {
+        if (message.hasLoadedHtmlFromJson()) {
+            String html = message.getContent().html;
+            saveHTML(message.getMessageId(), html);
+            message.setLoadedHtmlFromJson(false);
+            if (getFileForContent(message.getMessageId()).exists()) {
+                message.onHtmlStored(this);
+
+                IterableInAppAssetCache assetCache = IterableInAppAssetCache.getInstance(context);
+                if (assetCache != null) {
+                    assetCache.prefetchAssets(message.getMessageId(), html);
+                }
             }
         }
     }
 
-    private synchronized void saveMetadata() {
+    private void saveMetadata(@NonNull IterableInAppMessage message) {
+        File folder = createFolderForMessage(message.getMessageId());
+        if (folder == null) {
+            IterableLogger.e(TAG, "Failed to create folder for in-app message metadata");
+            return;
+        }
+
+        boolean result = IterableUtil.writeFileWithChecksum(new File(folder, METADATA_FILE), message.toJSONObject().toString());
+        if (!result) {
+            IterableLogger.e(TAG, "Failed to store in-app message metadata");
+        }
+    }
+
+    private void saveMessageIds() {
         try {
-            File inAppStorageFile = getInAppStorageFile();
-            JSONObject jsonData = serializeMessages();
-            IterableUtil.writeFile(inAppStorageFile, jsonData.toString());
+            IterableUtil.writeFileWithChecksum(getMessageIdsFile(), serializeMessageIds().toString());
         } catch (Exception e) {
-            IterableLogger.e(TAG, "Error while saving in-app messages to file", e);
+            IterableLogger.e(TAG, "Error while saving in-app message IDs to file", e);
         }
     }
     //endregion
 
     //region File Management
+    private File getMessageIdsFile() {
+        return new File(getInAppContentFolder(), MESSAGE_IDS_FILE);
+    }
+
     private File getInAppStorageFile() {
-        return new File(getInAppContentFolder(), "itbl_inapp.json");
+        return new File(getInAppContentFolder(), LEGACY_STORAGE_FILE);
     }
 
     private File getInAppCacheStorageFile() {
-        return new File(IterableUtil.getSdkCacheDir(context), "itbl_inapp.json");
+        return new File(IterableUtil.getSdkCacheDir(context), LEGACY_STORAGE_FILE);
     }
 
     @Nullable
     private File createFolderForMessage(String messageID) {
         File folder = getFolderForMessage(messageID);
 
-        if (folder.isDirectory() && new File(folder, INDEX_FILE).exists()) {
-            IterableLogger.v(TAG, "Directory with file already exists. No need to store again");
-            return null;
-        }
-
-        boolean result = folder.mkdir();
-        if (result) {
+        if (folder.isDirectory() || folder.mkdir()) {
             return folder;
         } else {
             return null;
@@ -253,6 +605,12 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         File folder = getFolderForMessage(messageID);
         return new File(folder, INDEX_FILE);
     }
+
+    @NonNull
+    private File getFileForMetadata(String messageID) {
+        File folder = getFolderForMessage(messageID);
+        return new File(folder, METADATA_FILE);
+    }
     //endregion
 
     class FileOperationHandler extends Handler {
@@ -262,7 +620,13 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
 
         @Override
         public void handleMessage(Message msg) {
-            if (msg.what == OPERATION_SAVE) {
+            if (msg.what == OPERATION_LOAD) {
+                try {
+                    load();
+                } finally {
+                    onLoadFinished();
+                }
+            } else if (msg.what == OPERATION_SAVE) {
                 saveMessages();
             }
         }
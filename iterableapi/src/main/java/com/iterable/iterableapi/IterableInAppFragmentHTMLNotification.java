@@ -216,7 +216,7 @@ public class IterableInAppFragmentHTMLNotification extends DialogFragment implem
             return null;
         }
         webView.setId(R.id.webView);
-        webView.createWithHtml(this, htmlString);
+        webView.createWithHtml(this, htmlString, messageId);
 
         if (orientationListener == null) {
             orientationListener = new OrientationEventListener(getContext(), SensorManager.SENSOR_DELAY_NORMAL) {
@@ -866,7 +866,7 @@ public class IterableInAppFragmentHTMLNotification extends DialogFragment implem
 
     private IterableWebView createWebViewSafely(Context context) {
         try {
-            return new IterableWebView(context);
+            return IterableWebViewPool.obtain(context);
         } catch (Resources.NotFoundException e) {
             IterableLogger.e(TAG, "Failed to create WebView - system WebView resource issue", e);
             return null;
@@ -0,0 +1,121 @@
+package com.iterable.iterableapi;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the HTML of recently used in-app messages in memory, up to a maximum size in bytes.
+ * The least recently used HTML is evicted first and is read from disk again when needed.
+ */
+class IterableInAppHTMLCache implements ComponentCallbacks2 {
+    private static final String TAG = "IterableInAppHTMLCache";
+
+    static final int DEFAULT_MAX_SIZE_BYTES = 2 * 1024 * 1024;
+
+    // A single process-wide hook forwards memory trims to the caches. The caches are held weakly,
+    // so the cache of a storage that was replaced isn't kept alive by the application context.
+    private static final Set<IterableInAppHTMLCache> registeredCaches =
+            Collections.newSetFromMap(new WeakHashMap<IterableInAppHTMLCache, Boolean>());
+    private static ComponentCallbacks2 trimMemoryHook;
+
+    private final LruCache<String, String> cache;
+
+    IterableInAppHTMLCache(int maxSizeBytes) {
+        cache = new LruCache<String, String>(Math.max(maxSizeBytes, 1)) {
+            @Override
+            protected int sizeOf(@NonNull String messageId, @NonNull String html) {
+                // Strings are stored as UTF-16
+                return html.length() * 2;
+            }
+        };
+    }
+
+    /**
+     * Trims the cache when the system is low on memory, for as long as the cache is in use
+     */
+    static void registerForTrimMemory(@NonNull Context context, @NonNull IterableInAppHTMLCache htmlCache) {
+        synchronized (registeredCaches) {
+            registeredCaches.add(htmlCache);
+            if (trimMemoryHook == null) {
+                trimMemoryHook = new ComponentCallbacks2() {
+                    @Override
+                    public void onTrimMemory(int level) {
+                        for (IterableInAppHTMLCache cache : getRegisteredCaches()) {
+                            cache.onTrimMemory(level);
+                        }
+                    }
+
+                    @Override
+                    public void onLowMemory() {
+                        for (IterableInAppHTMLCache cache : getRegisteredCaches()) {
+                            cache.onLowMemory();
+                        }
+                    }
+
+                    @Override
+                    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                    }
+                };
+                context.getApplicationContext().registerComponentCallbacks(trimMemoryHook);
+            }
+        }
+    }
+
+    @NonNull
+    private static List<IterableInAppHTMLCache> getRegisteredCaches() {
+        synchronized (registeredCaches) {
+            return new ArrayList<>(registeredCaches);
+        }
+    }
+
+    @Nullable
+    String get(@NonNull String messageId) {
+        return cache.get(messageId);
+    }
+
+    void put(@NonNull String messageId, @NonNull String html) {
+        cache.put(messageId, html);
+    }
+
+    void remove(@NonNull String messageId) {
+        cache.remove(messageId);
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    int maxSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            IterableLogger.d(TAG, "Clearing in-app HTML cache, trim level " + level);
+            cache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        cache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+}
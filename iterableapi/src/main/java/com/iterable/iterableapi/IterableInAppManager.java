@@ -14,16 +14,16 @@ import com.iterable.iterableapi.IterableInAppHandler.InAppResponse;
 import com.iterable.iterableapi.IterableInAppMessage.Trigger.TriggerType;
 
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by David Truong dt@iterable.com.
@@ -36,6 +36,10 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
     static final int MESSAGES_TO_FETCH = 100;
 
     public interface Listener {
+        /**
+         * Called on the main thread when the messages change, and once the messages stored on the
+         * device have been loaded
+         */
         void onInboxUpdated();
     }
 
@@ -48,8 +52,20 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
     private final double inAppDisplayInterval;
     private final List<Listener> listeners = new ArrayList<>();
     private long lastSyncTime = 0;
+    // ETag of the last synced message list; cleared whenever the local messages are reset
+    @Nullable
+    private String lastSyncETag;
     private long lastInAppShown = 0;
     private boolean autoDisplayPaused = false;
+    @VisibleForTesting
+    final Handler expiryHandler = new Handler(Looper.getMainLooper());
+    @VisibleForTesting
+    final Runnable expiryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            removeExpiredMessages();
+        }
+    };
 
     IterableInAppManager(IterableApi iterableApi, IterableInAppHandler handler, double inAppDisplayInterval, boolean useInMemoryStorageForInApps) {
         this(iterableApi,
@@ -76,6 +92,15 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         this.activityMonitor = activityMonitor;
         this.activityMonitor.addCallback(this);
 
+        // Messages stored on disk are loaded in the background. Listeners are always notified once
+        // they are, even if there are none, so that screens that queried the messages early refresh.
+        storage.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                notifyOnChange();
+            }
+        });
+
         syncInApp();
     }
 
@@ -95,13 +120,17 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
     /**
      * Get the list of available in-app messages
      * This list is synchronized with the server by the SDK
+     * Messages stored on the device are loaded in the background when the SDK is initialized, so
+     * the list may be empty until they are. {@link Listener#onInboxUpdated()} is called once they
+     * are loaded.
      * @return A {@link List} of {@link IterableInAppMessage} objects
      */
     @NonNull
     public synchronized List<IterableInAppMessage> getMessages() {
+        checkExpiredMessages();
         List<IterableInAppMessage> filteredList = new ArrayList<>();
         for (IterableInAppMessage message : storage.getMessages()) {
-            if (!message.isConsumed() && !isMessageExpired(message)) {
+            if (!message.isConsumed()) {
                 filteredList.add(message);
             }
         }
@@ -114,31 +143,23 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
 
     /**
      * Get the list of inbox messages
+     * The list may be empty until the messages stored on the device are loaded, see {@link #getMessages()}
      * @return A {@link List} of {@link IterableInAppMessage} objects stored in inbox
      */
     @NonNull
     public synchronized List<IterableInAppMessage> getInboxMessages() {
-        List<IterableInAppMessage> filteredList = new ArrayList<>();
-        for (IterableInAppMessage message : storage.getMessages()) {
-            if (!message.isConsumed() && !isMessageExpired(message) && message.isInboxMessage()) {
-                filteredList.add(message);
-            }
-        }
-        return filteredList;
+        checkExpiredMessages();
+        return storage.getInboxMessages();
     }
 
     /**
      * Get the count of unread inbox messages
+     * The count may be 0 until the messages stored on the device are loaded, see {@link #getMessages()}
      * @return Unread inbox messages count
      */
     public synchronized int getUnreadInboxMessagesCount() {
-        int unreadInboxMessageCount = 0;
-        for (IterableInAppMessage message : getInboxMessages()) {
-            if (!message.isRead()) {
-                unreadInboxMessageCount++;
-            }
-        }
-        return unreadInboxMessageCount;
+        checkExpiredMessages();
+        return storage.getUnreadInboxMessagesCount();
     }
 
     public synchronized void setRead(@NonNull IterableInAppMessage message, boolean read) {
@@ -196,32 +217,37 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
      */
     void syncInApp() {
         IterableLogger.printInfo();
-        this.api.getInAppMessages(MESSAGES_TO_FETCH, new IterableHelper.IterableActionHandler() {
+        this.api.getInAppMessages(MESSAGES_TO_FETCH, lastSyncETag, new IterableHelper.SuccessHandler() {
             @Override
-            public void execute(String payload) {
-                if (payload != null && !payload.isEmpty()) {
-                    try {
-                        List<IterableInAppMessage> messages = new ArrayList<>();
-                        JSONObject mainObject = new JSONObject(payload);
-                        JSONArray jsonArray = mainObject.optJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE);
-                        if (jsonArray != null) {
-                            for (int i = 0; i < jsonArray.length(); i++) {
-                                JSONObject messageJson = jsonArray.optJSONObject(i);
-                                IterableInAppMessage message = IterableInAppMessage.fromJSONObject(messageJson, null);
-                                if (message != null) {
-                                    messages.add(message);
-                                }
-                            }
-
-                            syncWithRemoteQueue(messages);
-                            lastSyncTime = IterableUtil.currentTimeMillis();
-                        }
-                    } catch (JSONException e) {
-                        IterableLogger.e(TAG, e.toString());
-                    }
-                } else {
+            public void onSuccess(@NonNull JSONObject data) {
+                if (data.optInt(IterableConstants.HTTP_STATUS_CODE) == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    IterableLogger.d(TAG, "In-app messages have not changed since the last sync");
+                    lastSyncTime = IterableUtil.currentTimeMillis();
+                    removeExpiredMessages();
                     scheduleProcessing();
+                    return;
                 }
+
+                // The response is parsed straight from the network stream, read the messages
+                // from it directly instead of serializing and re-parsing the payload
+                final JSONArray jsonArray = data.optJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE);
+                if (jsonArray != null) {
+                    // The remote messages are compared with all stored messages, so this waits
+                    // until they have been loaded
+                    storage.whenLoaded(new Runnable() {
+                        @Override
+                        public void run() {
+                            syncWithRemoteQueue(jsonArray);
+                        }
+                    });
+                    lastSyncTime = IterableUtil.currentTimeMillis();
+                    lastSyncETag = data.optString(IterableConstants.KEY_ETAG, null);
+                }
+            }
+        }, new IterableHelper.FailureHandler() {
+            @Override
+            public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+                scheduleProcessing();
             }
         });
     }
@@ -233,11 +259,18 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
     void reset() {
         IterableLogger.printInfo();
 
-        for (IterableInAppMessage message : storage.getMessages()) {
-            storage.removeMessage(message);
-        }
+        lastSyncETag = null;
+        expiryHandler.removeCallbacks(expiryRunnable);
+        storage.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                for (IterableInAppMessage message : storage.getMessages()) {
+                    storage.removeMessage(message);
+                }
 
-        notifyOnChange();
+                notifyOnChange();
+            }
+        });
     }
 
     /**
@@ -348,12 +381,50 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
      * This should only be called when a silent push is received
      * @param messageId messageId of the message to be removed
      */
-    synchronized void removeMessage(String messageId) {
-        IterableInAppMessage message = storage.getMessage(messageId);
-        if (message != null) {
+    synchronized void removeMessage(final String messageId) {
+        storage.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                IterableInAppMessage message = storage.getMessage(messageId);
+                if (message != null) {
+                    storage.removeMessage(message);
+                }
+                notifyOnChange();
+            }
+        });
+    }
+
+    /**
+     * Removes the expired messages from the storage, along with their HTML, and schedules the next
+     * removal for when the next message expires
+     */
+    @VisibleForTesting
+    synchronized void removeExpiredMessages() {
+        expiryHandler.removeCallbacks(expiryRunnable);
+
+        long currentTime = IterableUtil.currentTimeMillis();
+        List<IterableInAppMessage> expiredMessages = storage.getExpiredMessages(currentTime);
+        for (IterableInAppMessage message : expiredMessages) {
             storage.removeMessage(message);
         }
-        notifyOnChange();
+        if (!expiredMessages.isEmpty()) {
+            IterableLogger.d(TAG, "Removed " + expiredMessages.size() + " expired in-app messages");
+            notifyOnChange();
+        }
+
+        long nextExpiryTime = storage.getNextExpiryTime();
+        if (nextExpiryTime != Long.MAX_VALUE) {
+            // A message is expired once the current time is past its expiration time
+            expiryHandler.postDelayed(expiryRunnable, nextExpiryTime - currentTime + 1);
+        }
+    }
+
+    // The expiry timer doesn't run while the device is asleep, so messages are also removed when
+    // they are queried after their expiration time. Only the first expiration time is compared.
+    private void checkExpiredMessages() {
+        if (IterableUtil.currentTimeMillis() > storage.getNextExpiryTime()) {
+            removeExpiredMessages();
+        }
     }
 
     private boolean isMessageExpired(IterableInAppMessage message) {
@@ -364,29 +435,44 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         }
     }
 
-    private void syncWithRemoteQueue(List<IterableInAppMessage> remoteQueue) {
+    /**
+     * Applies the remote queue to the storage incrementally: only messages that aren't stored yet
+     * are parsed and added, stored messages only pick up the read flag and messages that are no
+     * longer in the queue are removed. Unchanged messages are not touched, so their metadata and
+     * HTML are not parsed or written again.
+     * @param remoteQueue in-app messages JSON returned by the server
+     */
+    private void syncWithRemoteQueue(@NonNull JSONArray remoteQueue) {
         boolean changed = false;
-        Map<String, IterableInAppMessage> remoteQueueMap = new HashMap<>();
+        Set<String> remoteMessageIds = new HashSet<>();
 
-        for (IterableInAppMessage message : remoteQueue) {
-            remoteQueueMap.put(message.getMessageId(), message);
+        for (int i = 0; i < remoteQueue.length(); i++) {
+            JSONObject messageJson = remoteQueue.optJSONObject(i);
+            if (messageJson == null) {
+                continue;
+            }
 
-            boolean isInAppStored = storage.getMessage(message.getMessageId()) != null;
+            String messageId = messageJson.optString(IterableConstants.KEY_MESSAGE_ID);
+            IterableInAppMessage localMessage = storage.getMessage(messageId);
 
-            if (!isInAppStored) {
+            if (localMessage == null) {
+                IterableInAppMessage message = IterableInAppMessage.fromJSONObject(messageJson, null);
+                if (message == null || isMessageExpired(message)) {
+                    continue;
+                }
+                remoteMessageIds.add(message.getMessageId());
                 storage.addMessage(message);
                 onMessageAdded(message);
 
                 changed = true;
-            }
-
-            if (isInAppStored) {
-                IterableInAppMessage localMessage = storage.getMessage(message.getMessageId());
+            } else {
+                remoteMessageIds.add(messageId);
 
-                boolean shouldOverwriteInApp = !localMessage.isRead() && message.isRead();
+                boolean remoteRead = messageJson.optBoolean(IterableConstants.ITERABLE_IN_APP_READ, false);
+                boolean shouldOverwriteInApp = !localMessage.isRead() && remoteRead;
 
                 if (shouldOverwriteInApp) {
-                    localMessage.setRead(message.isRead());
+                    localMessage.setRead(true);
 
                     changed = true;
                 }
@@ -394,13 +480,14 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         }
 
         for (IterableInAppMessage localMessage : storage.getMessages()) {
-            if (!remoteQueueMap.containsKey(localMessage.getMessageId())) {
+            if (!remoteMessageIds.contains(localMessage.getMessageId())) {
                 storage.removeMessage(localMessage);
 
                 changed = true;
             }
         }
 
+        removeExpiredMessages();
         scheduleProcessing();
 
         if (changed) {
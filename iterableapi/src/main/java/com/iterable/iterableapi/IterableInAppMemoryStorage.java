@@ -6,8 +6,9 @@ import androidx.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 
-class IterableInAppMemoryStorage implements IterableInAppStorage {
+class IterableInAppMemoryStorage implements IterableInAppStorage, IterableInAppMessage.OnChangeListener {
     private List<IterableInAppMessage> messages = new ArrayList<>();
+    private final IterableInAppMessageIndex index = new IterableInAppMessageIndex();
 
     IterableInAppMemoryStorage() {
 
@@ -34,11 +35,43 @@ class IterableInAppMemoryStorage implements IterableInAppStorage {
     @Override
     public synchronized void addMessage(@NonNull IterableInAppMessage message) {
         messages.add(message);
+        message.setOnChangeListener(this);
+        index.add(message);
     }
 
     @Override
     public synchronized void removeMessage(@NonNull IterableInAppMessage message) {
-        messages.remove(message);
+        if (messages.remove(message)) {
+            message.setOnChangeListener(null);
+            index.remove(message);
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<IterableInAppMessage> getInboxMessages() {
+        return index.getInboxMessages();
+    }
+
+    @Override
+    public synchronized int getUnreadInboxMessagesCount() {
+        return index.getUnreadInboxMessagesCount();
+    }
+
+    @Override
+    public synchronized long getNextExpiryTime() {
+        return index.getNextExpiryTime();
+    }
+
+    @Override
+    public void whenLoaded(@NonNull Runnable callback) {
+        callback.run();
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<IterableInAppMessage> getExpiredMessages(long currentTimeMillis) {
+        return index.getExpiredMessages(currentTimeMillis);
     }
 
     @Override
@@ -56,4 +89,11 @@ class IterableInAppMemoryStorage implements IterableInAppStorage {
 
     }
     //endregion
+
+    @Override
+    public synchronized void onInAppMessageChanged(@NonNull IterableInAppMessage message) {
+        if (messages.contains(message)) {
+            index.update(message);
+        }
+    }
 }
@@ -16,7 +16,7 @@ public class IterableInAppMessage {
     private static final String TAG = "IterableInAppMessage";
 
     private final @NonNull String messageId;
-    private final @NonNull Content content;
+    private volatile @NonNull Content content;
     private final @Nullable JSONObject customPayload;
     private final @NonNull Date createdAt;
     private final @NonNull Date expiresAt;
@@ -30,7 +30,7 @@ public class IterableInAppMessage {
     private boolean read = false;
     private boolean loadedHtmlFromJson = false;
     private boolean markedForDeletion = false;
-    private @Nullable IterableInAppStorage inAppStorageInterface;
+    private volatile @Nullable IterableInAppStorage inAppStorageInterface;
     private final boolean jsonOnly;
 
     IterableInAppMessage(@NonNull String messageId,
@@ -249,8 +249,11 @@ public class IterableInAppMessage {
 
     @NonNull
     public Content getContent() {
-        if (content.html == null && !jsonOnly) {
-            content.html = inAppStorageInterface.getHTML(messageId);
+        Content content = this.content;
+        if (content.html == null && !jsonOnly && inAppStorageInterface != null) {
+            // HTML stored on disk isn't kept on the message, the storage caches recently used HTML
+            return new Content(inAppStorageInterface.getHTML(messageId), content.padding,
+                    content.backgroundAlpha, content.inAppDisplaySettings.shouldAnimate, content.inAppDisplaySettings);
         }
         return content;
     }
@@ -317,6 +320,18 @@ public class IterableInAppMessage {
         this.loadedHtmlFromJson = loadedHtmlFromJson;
     }
 
+    /**
+     * Called once the storage has saved the HTML, so the message no longer holds on to it.
+     * Content objects returned by {@link #getContent()} before this call keep their HTML.
+     * @param storage storage that {@link #getContent()} loads the HTML from
+     */
+    void onHtmlStored(@NonNull IterableInAppStorage storage) {
+        inAppStorageInterface = storage;
+        Content content = this.content;
+        this.content = new Content(null, content.padding, content.backgroundAlpha,
+                content.inAppDisplaySettings.shouldAnimate, content.inAppDisplaySettings);
+    }
+
     public boolean isMarkedForDeletion() {
         return markedForDeletion;
     }
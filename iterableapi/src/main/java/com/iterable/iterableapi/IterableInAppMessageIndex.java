@@ -0,0 +1,109 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Secondary indexes over the messages of an {@link IterableInAppStorage}, so inbox queries don't
+ * have to scan every message. The storage updates the index when messages are added or removed
+ * and when a message changes. Not thread-safe, the storage guards it with its own lock.
+ */
+class IterableInAppMessageIndex {
+
+    // Inbox messages that haven't been consumed, in storage order
+    private final Map<String, IterableInAppMessage> inboxMessages = new LinkedHashMap<>();
+    private final Set<String> unreadInboxMessageIds = new HashSet<>();
+
+    // Messages that expire, the first one to expire first
+    private final PriorityQueue<IterableInAppMessage> expiryQueue = new PriorityQueue<>(11, new Comparator<IterableInAppMessage>() {
+        @Override
+        public int compare(IterableInAppMessage message1, IterableInAppMessage message2) {
+            return Long.compare(message1.getExpiresAt().getTime(), message2.getExpiresAt().getTime());
+        }
+    });
+
+    void add(@NonNull IterableInAppMessage message) {
+        if (message.getExpiresAt() != null) {
+            expiryQueue.add(message);
+        }
+        update(message);
+    }
+
+    void remove(@NonNull IterableInAppMessage message) {
+        if (message.getExpiresAt() != null) {
+            expiryQueue.remove(message);
+        }
+        inboxMessages.remove(message.getMessageId());
+        unreadInboxMessageIds.remove(message.getMessageId());
+    }
+
+    /**
+     * Updates the indexes after the consumed or read state of the message changed
+     */
+    void update(@NonNull IterableInAppMessage message) {
+        String messageId = message.getMessageId();
+        if (message.isInboxMessage() && !message.isConsumed()) {
+            inboxMessages.put(messageId, message);
+            if (message.isRead()) {
+                unreadInboxMessageIds.remove(messageId);
+            } else {
+                unreadInboxMessageIds.add(messageId);
+            }
+        } else {
+            inboxMessages.remove(messageId);
+            unreadInboxMessageIds.remove(messageId);
+        }
+    }
+
+    void clear() {
+        inboxMessages.clear();
+        unreadInboxMessageIds.clear();
+        expiryQueue.clear();
+    }
+
+    /**
+     * @return inbox messages that haven't been consumed, including expired ones
+     */
+    @NonNull
+    List<IterableInAppMessage> getInboxMessages() {
+        return new ArrayList<>(inboxMessages.values());
+    }
+
+    /**
+     * @return number of unread inbox messages that haven't been consumed, including expired ones
+     */
+    int getUnreadInboxMessagesCount() {
+        return unreadInboxMessageIds.size();
+    }
+
+    /**
+     * @return messages that expired before the given time, the first one to expire first
+     */
+    @NonNull
+    List<IterableInAppMessage> getExpiredMessages(long currentTimeMillis) {
+        // Only the expired messages are polled from the head of the queue, then put back so that
+        // the index doesn't change until the storage removes them
+        List<IterableInAppMessage> expiredMessages = new ArrayList<>();
+        while (!expiryQueue.isEmpty() && currentTimeMillis > expiryQueue.peek().getExpiresAt().getTime()) {
+            expiredMessages.add(expiryQueue.poll());
+        }
+        expiryQueue.addAll(expiredMessages);
+        return expiredMessages;
+    }
+
+    /**
+     * @return time at which the first message expires, or {@link Long#MAX_VALUE} if no message expires
+     */
+    long getNextExpiryTime() {
+        IterableInAppMessage message = expiryQueue.peek();
+        return message != null ? message.getExpiresAt().getTime() : Long.MAX_VALUE;
+    }
+}
@@ -16,6 +16,34 @@ interface IterableInAppStorage {
 
     void removeMessage(@NonNull IterableInAppMessage message);
 
+    /**
+     * @return inbox messages that haven't been consumed, including expired ones
+     */
+    @NonNull
+    List<IterableInAppMessage> getInboxMessages();
+
+    /**
+     * @return number of unread inbox messages that haven't been consumed, including expired ones
+     */
+    int getUnreadInboxMessagesCount();
+
+    /**
+     * @return time at which the first message expires, or {@link Long#MAX_VALUE} if no message expires
+     */
+    long getNextExpiryTime();
+
+    /**
+     * @return messages that expired before the given time
+     */
+    @NonNull
+    List<IterableInAppMessage> getExpiredMessages(long currentTimeMillis);
+
+    /**
+     * Runs the callback once the stored messages have been loaded: right away if they already
+     * are, otherwise on the main thread after they are. Callbacks run in the order they were added.
+     */
+    void whenLoaded(@NonNull Runnable callback);
+
     void saveHTML(@NonNull String messageID, @NonNull String contentHTML);
 
     @Nullable
@@ -0,0 +1,123 @@
+package com.iterable.iterableapi;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Parses JSON responses directly from the network stream, so large payloads (e.g. in-app messages
+ * with inline HTML) don't have to be buffered into a String before being parsed.
+ */
+class IterableJsonStreamParser {
+
+    private IterableJsonStreamParser() {
+    }
+
+    /**
+     * Reads a JSON object from the stream. The stream is read to the end but not closed.
+     * @param inputStream response body
+     * @return parsed object, or null if the stream is empty
+     * @throws JSONException if the body is not a valid JSON object
+     * @throws IOException   if the stream can't be read
+     */
+    @Nullable
+    static JSONObject readObject(@NonNull InputStream inputStream) throws IOException, JSONException {
+        BufferedInputStream bufferedStream = new BufferedInputStream(inputStream);
+        bufferedStream.mark(1);
+        if (bufferedStream.read() == -1) {
+            return null;
+        }
+        bufferedStream.reset();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(bufferedStream, UTF_8));
+        // org.json accepts unquoted names and single quotes, keep accepting the same payloads
+        reader.setLenient(true);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new JSONException("Response is not a JSON object");
+            }
+            JSONObject object = readObject(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JSONException("Unexpected data after the JSON object");
+            }
+            return object;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @NonNull
+    private static JSONObject readObject(@NonNull JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    @NonNull
+    private static JSONArray readArray(@NonNull JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    @NonNull
+    private static Object readValue(@NonNull JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Unexpected token " + reader.peek());
+        }
+    }
+
+    // Same number types as org.json: Integer or Long for integers, Double otherwise
+    @NonNull
+    private static Object parseNumber(@NonNull String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long longValue = Long.parseLong(number);
+                if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException ignored) {
+                // Too large for a long, fall back to a double
+            }
+        }
+        return Double.valueOf(number);
+    }
+}
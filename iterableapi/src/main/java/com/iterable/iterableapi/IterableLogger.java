@@ -2,76 +2,151 @@ package com.iterable.iterableapi;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
 /**
  * Created by David Truong dt@iterable.com.
  */
 public class IterableLogger {
 
+    // Updated by IterableApi whenever the config or debug mode changes, so level checks don't
+    // have to look up the config for every message
+    private static volatile int logLevel = Log.ERROR;
+
     public static void d(String tag, String msg) {
-        if (isLoggableLevel(Log.DEBUG)) {
+        if (isLoggable(Log.DEBUG)) {
             Log.d(tag, " 💚 " + msg);
         }
     }
 
     public static void d(String tag, String msg, Throwable tr) {
-        if (isLoggableLevel(Log.DEBUG)) {
+        if (isLoggable(Log.DEBUG)) {
             Log.d(tag, " 💚 " + msg, tr);
         }
     }
 
+    /**
+     * Logs a debug message. The message is only formatted if debug logging is enabled.
+     * @param format format string, see {@link String#format(String, Object...)}
+     * @param args   format arguments
+     */
+    public static void d(String tag, String format, Object... args) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, " 💚 " + format(format, args));
+        }
+    }
+
     public static void v(String tag, String msg) {
-        if (isLoggableLevel(Log.VERBOSE)) {
+        if (isLoggable(Log.VERBOSE)) {
             Log.v(tag, " 💛 " + msg);
         }
     }
 
+    /**
+     * Logs a verbose message. The message is only formatted if verbose logging is enabled.
+     * @param format format string, see {@link String#format(String, Object...)}
+     * @param args   format arguments
+     */
+    public static void v(String tag, String format, Object... args) {
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(tag, " 💛 " + format(format, args));
+        }
+    }
+
     public static void w(String tag, String msg) {
-        if (isLoggableLevel(Log.WARN)) {
+        if (isLoggable(Log.WARN)) {
             Log.w(tag, " 🧡️ " + msg);
         }
     }
 
     public static void w(String tag, String msg, Throwable tr) {
-        if (isLoggableLevel(Log.WARN)) {
+        if (isLoggable(Log.WARN)) {
             Log.w(tag, " 🧡 " + msg, tr);
         }
     }
 
+    /**
+     * Logs a warning. The message is only formatted if warnings are logged.
+     * @param format format string, see {@link String#format(String, Object...)}
+     * @param args   format arguments
+     */
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, " 🧡️ " + format(format, args));
+        }
+    }
+
     public static void e(String tag, String msg) {
-        if (isLoggableLevel(Log.ERROR)) {
+        if (isLoggable(Log.ERROR)) {
             Log.e(tag, " ❤️ " + msg);
         }
     }
 
     public static void e(String tag, String msg, Throwable tr) {
-        if (isLoggableLevel(Log.ERROR)) {
+        if (isLoggable(Log.ERROR)) {
             Log.e(tag, " ❤️ " + msg, tr);
         }
     }
 
+    /**
+     * Logs an error. The message is only formatted if errors are logged.
+     * @param format format string, see {@link String#format(String, Object...)}
+     * @param args   format arguments
+     */
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, " ❤️ " + format(format, args));
+        }
+    }
+
+    /**
+     * Logs the calling method. Does nothing unless verbose logging is enabled, since capturing
+     * the stack trace is expensive.
+     */
     public static void printInfo() {
+        if (!isLoggable(Log.VERBOSE)) {
+            return;
+        }
         try {
-            IterableLogger.v("Iterable Call", Thread.currentThread().getStackTrace()[3].getFileName() + " => " + Thread.currentThread().getStackTrace()[3].getClassName() + " => " + Thread.currentThread().getStackTrace()[3].getMethodName() + " => Line #" + Thread.currentThread().getStackTrace()[3].getLineNumber());
+            StackTraceElement caller = Thread.currentThread().getStackTrace()[3];
+            IterableLogger.v("Iterable Call", caller.getFileName() + " => " + caller.getClassName() + " => " + caller.getMethodName() + " => Line #" + caller.getLineNumber());
         } catch (Exception e) {
             IterableLogger.e("Iterable Call", "Couldn't print info");
         }
     }
 
-    private static boolean isLoggableLevel(int messageLevel) {
-        return messageLevel >= getLogLevel();
+    /**
+     * Check the log level before building expensive log messages
+     * @param messageLevel log level of the message, e.g. {@link Log#VERBOSE}
+     * @return true if messages with this level are logged
+     */
+    public static boolean isLoggable(int messageLevel) {
+        return messageLevel >= logLevel;
     }
 
-    private static int getLogLevel() {
-        if (IterableApi.sharedInstance != null && IterableApi.sharedInstance.config != null) {
-            if (IterableApi.sharedInstance.getDebugMode()) {
-                return Log.VERBOSE;
-            } else {
-                IterableConfig config = IterableApi.sharedInstance.config;
-                if (config != null) {
-                    return config.logLevel;
-                }
-            }
+    /**
+     * Called when the SDK config or debug mode changes
+     * @param config    current SDK config
+     * @param debugMode true if debug mode is enabled
+     */
+    static void updateLogLevel(@Nullable IterableConfig config, boolean debugMode) {
+        if (config == null) {
+            logLevel = Log.ERROR;
+        } else if (debugMode) {
+            logLevel = Log.VERBOSE;
+        } else {
+            logLevel = config.logLevel;
+        }
+    }
+
+    private static String format(String format, Object... args) {
+        try {
+            return String.format(Locale.US, format, args);
+        } catch (Exception e) {
+            // Don't let a bad format string crash the app, log it unformatted instead
+            return format;
         }
-        return Log.ERROR;
     }
 }
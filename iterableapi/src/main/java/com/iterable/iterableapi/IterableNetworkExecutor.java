@@ -0,0 +1,135 @@
+package com.iterable.iterableapi;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor used for all SDK network requests, so that SDK traffic doesn't share the app-wide
+ * AsyncTask pool with the host app. Apps can provide their own executor through
+ * {@link IterableConfig.Builder#setNetworkExecutor(Executor)}.
+ */
+class IterableNetworkExecutor {
+    private static final String TAG = "IterableNetworkExecutor";
+
+    private static final int POOL_SIZE = 4;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // A warning is logged when this many requests are waiting for a thread
+    private static final int QUEUE_DEPTH_WARNING_THRESHOLD = QUEUE_CAPACITY / 2;
+
+    private static volatile IterableNetworkExecutor sharedInstance;
+
+    private final ThreadPoolExecutor executor;
+    private ThreadPoolExecutor overflowExecutor;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private IterableNetworkExecutor() {
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), createThreadFactory("IterableNetwork-"),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        rejectedCount.incrementAndGet();
+                        IterableLogger.w(TAG, "Network queue is full, running request on the overflow thread (" + getMetrics() + ")");
+                        getOverflowExecutor().execute(runnable);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the executor that SDK network requests should run on: the executor provided in
+     * {@link IterableConfig}, or the SDK's own bounded pool.
+     */
+    @NonNull
+    static Executor getExecutor() {
+        IterableConfig config = IterableApi.getInstance().config;
+        if (config != null && config.networkExecutor != null) {
+            return config.networkExecutor;
+        }
+        return getInstance().executor;
+    }
+
+    /**
+     * @return whether the executor is the SDK's own pool rather than one provided in {@link IterableConfig}
+     */
+    static boolean isSdkExecutor(@NonNull Executor executor) {
+        IterableNetworkExecutor instance = sharedInstance;
+        return instance != null && instance.executor == executor;
+    }
+
+    @NonNull
+    static IterableNetworkExecutor getInstance() {
+        if (sharedInstance == null) {
+            synchronized (IterableNetworkExecutor.class) {
+                if (sharedInstance == null) {
+                    sharedInstance = new IterableNetworkExecutor();
+                }
+            }
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Called before a request is dispatched to log a warning when requests start piling up
+     */
+    void onRequestQueued() {
+        if (executor.getQueue().size() >= QUEUE_DEPTH_WARNING_THRESHOLD) {
+            IterableLogger.w(TAG, "Network requests are waiting to be sent (" + getMetrics() + ")");
+        }
+    }
+
+    /**
+     * @return requests waiting for a thread, being sent, sent since the executor was created, and
+     * that didn't fit in the queue and ran on the overflow thread
+     */
+    @NonNull
+    String getMetrics() {
+        return executor.getQueue().size() + " queued, " + executor.getActiveCount() + " active, "
+                + executor.getCompletedTaskCount() + " completed, " + rejectedCount.get() + " rejected";
+    }
+
+    // Requests are never dropped: the ones that don't fit in the queue run on a single thread
+    // instead, the same way AsyncTask.THREAD_POOL_EXECUTOR handles rejections
+    private synchronized ThreadPoolExecutor getOverflowExecutor() {
+        if (overflowExecutor == null) {
+            overflowExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), createThreadFactory("IterableNetworkOverflow-"));
+            overflowExecutor.allowCoreThreadTimeOut(true);
+        }
+        return overflowExecutor;
+    }
+
+    private static ThreadFactory createThreadFactory(final String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, namePrefix + threadCount.incrementAndGet());
+            }
+        };
+    }
+
+    @VisibleForTesting
+    static void reset() {
+        sharedInstance = null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.iterable.iterableapi;
+
+/**
+ * Controls what happens to a new offline-compatible request when the offline queue already
+ * holds {@link IterableConstants#OFFLINE_TASKS_LIMIT} requests.
+ * <p>
+ * This setting is configured via
+ * {@link IterableConfig.Builder#setOfflineQueueOverflowPolicy(IterableOfflineQueueOverflowPolicy)}.
+ */
+public enum IterableOfflineQueueOverflowPolicy {
+
+    /**
+     * Default. The new request is not queued and is sent to the server immediately.
+     * This preserves the behavior of previous SDK versions.
+     */
+    SEND_IMMEDIATELY,
+
+    /**
+     * The oldest queued request is dropped to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The oldest queued request with the lowest priority is dropped to make room for the new one.
+     * Delivery and session tracking are dropped first, then engagement events, and
+     * commerce events last. Only requests with a lower priority than the new request are
+     * dropped: if there are none, the new request is dropped instead.
+     */
+    DROP_LOWEST_PRIORITY,
+
+    /**
+     * If the new request supersedes a queued one (e.g. a cart update replaces a previous cart
+     * update), the queued request is dropped. Otherwise the oldest queued request is dropped.
+     */
+    COALESCE
+}
@@ -0,0 +1,87 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import java.util.concurrent.TimeUnit;
+
+class IterableOfflineQueueWorkScheduler {
+
+    private static final String TAG = "IterableOfflineQueueWorkScheduler";
+
+    static final String WORK_NAME = "IterableOfflineQueueWork";
+    private static final long BACKOFF_DELAY_MINUTES = 1;
+
+    private final WorkManager workManager;
+
+    IterableOfflineQueueWorkScheduler(@NonNull Context context) {
+        this(WorkManager.getInstance(context.getApplicationContext()));
+    }
+
+    @VisibleForTesting
+    IterableOfflineQueueWorkScheduler(@NonNull WorkManager workManager) {
+        this.workManager = workManager;
+    }
+
+    /**
+     * Schedules a job that sends the queued offline requests once the device is connected to a
+     * network and the battery is not low. Does nothing if the job is already scheduled.
+     */
+    void scheduleOfflineQueueWork() {
+        try {
+            workManager.enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, buildWorkRequest(0));
+            IterableLogger.d(TAG, "Offline queue work scheduled");
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Failed to schedule offline queue work", e);
+        }
+    }
+
+    /**
+     * Schedules a job that sends the queued offline requests after the given delay, for requests
+     * that are waiting for their retry time. Called from the running job, so the new job is
+     * appended to it instead of being dropped or cancelling it.
+     *
+     * @param initialDelayMs Time to wait before the job runs, in milliseconds
+     */
+    void scheduleOfflineQueueWork(long initialDelayMs) {
+        try {
+            workManager.enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, buildWorkRequest(initialDelayMs));
+            IterableLogger.d(TAG, "Offline queue work scheduled in " + initialDelayMs + "ms");
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Failed to schedule offline queue work", e);
+        }
+    }
+
+    private OneTimeWorkRequest buildWorkRequest(long initialDelayMs) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        return new OneTimeWorkRequest.Builder(IterableOfflineQueueWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_DELAY_MINUTES, TimeUnit.MINUTES)
+                .setInitialDelay(initialDelayMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Cancels the pending offline queue job, e.g. when the app returns to the foreground and the
+     * queue is processed in the app process again.
+     */
+    void cancelOfflineQueueWork() {
+        try {
+            workManager.cancelUniqueWork(WORK_NAME);
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Failed to cancel offline queue work", e);
+        }
+    }
+}
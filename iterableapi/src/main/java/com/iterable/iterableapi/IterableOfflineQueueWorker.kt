@@ -0,0 +1,46 @@
+package com.iterable.iterableapi
+
+import android.content.Context
+import androidx.annotation.WorkerThread
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+
+/**
+ * Sends the queued offline requests while the app is in the background, using the same
+ * [IterableTaskRunner] that processes the queue in the foreground.
+ */
+internal class IterableOfflineQueueWorker(
+    context: Context,
+    params: WorkerParameters
+) : Worker(context, params) {
+
+    companion object {
+        private const val TAG = "IterableOfflineQueueWorker"
+        private const val MAX_RUN_ATTEMPTS = 5
+    }
+
+    @WorkerThread
+    override fun doWork(): Result {
+        if (!IterableApi.isSDKInitialized()) {
+            IterableLogger.d(TAG, "SDK is not initialized, skipping offline queue processing")
+            return Result.success()
+        }
+
+        return try {
+            // Deferred tasks are picked up by a delayed job the runner schedules, so only
+            // tasks that are due now need a retry
+            val done = IterableApi.getInstance().apiClient.processOfflineTasksInBackground()
+            when {
+                done -> Result.success()
+                runAttemptCount + 1 >= MAX_RUN_ATTEMPTS -> {
+                    IterableLogger.d(TAG, "Offline queue not drained, remaining tasks will be sent later")
+                    Result.success()
+                }
+                else -> Result.retry()
+            }
+        } catch (e: Exception) {
+            IterableLogger.e(TAG, "Error processing offline queue in Worker", e)
+            Result.failure()
+        }
+    }
+}
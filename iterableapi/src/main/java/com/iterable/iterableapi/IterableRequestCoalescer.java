@@ -0,0 +1,157 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces identical GET requests that are in flight at the same time, so that e.g. an
+ * in-app sync triggered by a silent push while the foreground sync is still running doesn't
+ * send a second request. All callers receive the response of the single network call.
+ */
+class IterableRequestCoalescer {
+    private static final String TAG = "IterableRequestCoalescer";
+
+    // An in-flight request is no longer joined after this long, in case its response never arrives
+    static final long IN_FLIGHT_TIMEOUT_MS = 60000;
+
+    interface Request {
+        void send(@NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure);
+    }
+
+    interface LegacyRequest {
+        void send(@NonNull IterableHelper.IterableActionHandler onCallback);
+    }
+
+    /**
+     * Implemented by the callbacks of a shared request. {@link IterableRequestTask} calls it as
+     * soon as the response arrives, so identical requests only join while the network call is
+     * running, not while its callbacks are waiting for the main thread.
+     */
+    interface ResponseListener {
+        void onResponseReceived();
+    }
+
+    private final Map<String, InFlightRequest> inFlightRequests = new HashMap<>();
+
+    /**
+     * Sends the request, or joins an identical request that is already in flight
+     * @param key       identifies identical requests, e.g. resource path and parameters
+     * @param onSuccess called with the response of the shared request
+     * @param onFailure called with the error of the shared request
+     * @param request   sends the request if there is no identical request in flight
+     */
+    void send(@NonNull String key, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure, @NonNull Request request) {
+        // Requests with String callbacks get the raw body, so they are never shared with JSON ones
+        InFlightRequest inFlightRequest = join("json:" + key, onSuccess, onFailure, null);
+        if (inFlightRequest != null) {
+            request.send(inFlightRequest, inFlightRequest);
+        }
+    }
+
+    /**
+     * Sends the request, or joins an identical request that is already in flight
+     * @param key        identifies identical requests, e.g. resource path and parameters
+     * @param onCallback called with the response body of the shared request
+     * @param request    sends the request if there is no identical request in flight
+     */
+    void send(@NonNull String key, @Nullable IterableHelper.IterableActionHandler onCallback, @NonNull LegacyRequest request) {
+        InFlightRequest inFlightRequest = join("raw:" + key, null, null, onCallback);
+        if (inFlightRequest != null) {
+            request.send(inFlightRequest);
+        }
+    }
+
+    /**
+     * Adds the callbacks to the identical in-flight request, or starts a new one
+     * @return the new request that the caller has to send, or null if an in-flight request was joined
+     */
+    @Nullable
+    private synchronized InFlightRequest join(@NonNull String requestKey, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure, @Nullable IterableHelper.IterableActionHandler onCallback) {
+        InFlightRequest existingRequest = inFlightRequests.get(requestKey);
+        if (existingRequest != null && !existingRequest.isExpired()) {
+            existingRequest.addCallbacks(onSuccess, onFailure, onCallback);
+            IterableLogger.d(TAG, "Joining an identical request that is already in flight");
+            return null;
+        }
+        InFlightRequest inFlightRequest = new InFlightRequest(requestKey);
+        inFlightRequest.addCallbacks(onSuccess, onFailure, onCallback);
+        inFlightRequests.put(requestKey, inFlightRequest);
+        return inFlightRequest;
+    }
+
+    // Once completed, the request is out of the map and its callback lists are no longer modified
+    private synchronized void complete(@NonNull InFlightRequest inFlightRequest) {
+        if (inFlightRequests.get(inFlightRequest.requestKey) == inFlightRequest) {
+            inFlightRequests.remove(inFlightRequest.requestKey);
+        }
+    }
+
+    synchronized void reset() {
+        inFlightRequests.clear();
+    }
+
+    private class InFlightRequest implements IterableHelper.SuccessHandler, IterableHelper.FailureHandler,
+            IterableHelper.IterableActionHandler, ResponseListener {
+        final String requestKey;
+        final long startedAt = IterableUtil.currentTimeMillis();
+        final List<IterableHelper.SuccessHandler> successHandlers = new ArrayList<>();
+        final List<IterableHelper.FailureHandler> failureHandlers = new ArrayList<>();
+        final List<IterableHelper.IterableActionHandler> actionHandlers = new ArrayList<>();
+
+        InFlightRequest(@NonNull String requestKey) {
+            this.requestKey = requestKey;
+        }
+
+        void addCallbacks(@Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure, @Nullable IterableHelper.IterableActionHandler onCallback) {
+            successHandlers.add(onSuccess);
+            failureHandlers.add(onFailure);
+            actionHandlers.add(onCallback);
+        }
+
+        boolean isExpired() {
+            return IterableUtil.currentTimeMillis() - startedAt > IN_FLIGHT_TIMEOUT_MS;
+        }
+
+        @Override
+        public void onResponseReceived() {
+            complete(this);
+        }
+
+        @Override
+        public void onSuccess(@NonNull JSONObject data) {
+            complete(this);
+            for (IterableHelper.SuccessHandler handler : successHandlers) {
+                if (handler != null) {
+                    handler.onSuccess(data);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+            complete(this);
+            for (IterableHelper.FailureHandler handler : failureHandlers) {
+                if (handler != null) {
+                    handler.onFailure(reason, data);
+                }
+            }
+        }
+
+        @Override
+        public void execute(@Nullable String data) {
+            complete(this);
+            for (IterableHelper.IterableActionHandler handler : actionHandlers) {
+                if (handler != null) {
+                    handler.execute(data);
+                }
+            }
+        }
+    }
+}
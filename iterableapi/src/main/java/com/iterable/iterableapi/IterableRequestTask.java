@@ -2,31 +2,40 @@ package com.iterable.iterableapi;
 
 import static com.iterable.iterableapi.IterableConstants.ENDPOINT_DISABLE_DEVICE;
 import static com.iterable.iterableapi.IterableConstants.ENDPOINT_GET_REMOTE_CONFIGURATION;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Async task to handle sending data to the Iterable server
@@ -40,6 +49,7 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
     static final int POST_REQUEST_DEFAULT_TIMEOUT_MS = 3000;    //3 seconds
     static final int GET_REQUEST_DEFAULT_TIMEOUT_MS = 10000;    //10 seconds
     static final long RETRY_DELAY_MS = 2000;      //2 seconds
+    static final int GZIP_MIN_BODY_BYTES = 1024;
     static final int MAX_RETRY_COUNT = 5;
 
     static final String ERROR_CODE_INVALID_JWT_PAYLOAD = "InvalidJwtPayload";
@@ -59,19 +69,52 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
         if (params != null && params.length > 0) {
             iterableApiRequest = params[0];
         }
-        return executeApiRequest(iterableApiRequest);
+        IterableApiResponse response = executeApiRequest(iterableApiRequest);
+        notifyResponseReceived(iterableApiRequest);
+        return response;
     }
 
-    private static void retryRequestWithNewAuthToken(String newAuthToken, IterableApiRequest iterableApiRequest) {
+    // Identical requests can join a coalesced request until its response arrives
+    private static void notifyResponseReceived(IterableApiRequest request) {
+        if (request == null) {
+            return;
+        }
+        Object callback = request.successCallback != null ? request.successCallback : request.legacyCallback;
+        if (callback instanceof IterableRequestCoalescer.ResponseListener) {
+            ((IterableRequestCoalescer.ResponseListener) callback).onResponseReceived();
+        }
+    }
+
+    /**
+     * Sends the request on the SDK network executor. Callbacks are delivered on the main thread.
+     *
+     * @param request request to send
+     */
+    void executeOnNetworkExecutor(IterableApiRequest request) {
+        Executor executor = IterableNetworkExecutor.getExecutor();
+        // The queue depth only describes the SDK pool, not an executor provided by the app
+        if (IterableNetworkExecutor.isSdkExecutor(executor)) {
+            IterableNetworkExecutor.getInstance().onRequestQueued();
+        }
+        executeOnExecutor(executor, request);
+    }
+
+    @VisibleForTesting
+    static void retryRequestWithNewAuthToken(String newAuthToken, IterableApiRequest iterableApiRequest) {
         IterableApiRequest request = new IterableApiRequest(
                 iterableApiRequest.apiKey,
                 iterableApiRequest.resourcePath,
                 iterableApiRequest.json,
                 iterableApiRequest.requestType,
                 newAuthToken,
-                iterableApiRequest.legacyCallback);
+                iterableApiRequest.successCallback,
+                iterableApiRequest.failureCallback);
+        request.legacyCallback = iterableApiRequest.legacyCallback;
+        if (iterableApiRequest.conditional) {
+            request.setConditional(iterableApiRequest.eTag);
+        }
         IterableRequestTask requestTask = new IterableRequestTask();
-        requestTask.execute(request);
+        requestTask.executeOnNetworkExecutor(request);
     }
 
     @WorkerThread
@@ -81,7 +124,12 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
 
         if (iterableApiRequest != null) {
             URL url;
+            IterableHttpTransport transport = IterableUrlConnectionTransport.getTransport();
             HttpURLConnection urlConnection = null;
+            // Set once the response body has been fully read, so the connection can be kept alive
+            boolean connectionReusable = false;
+            // Request and response bodies are only pretty-printed when they will actually be logged
+            boolean verboseLogging = IterableLogger.isLoggable(Log.VERBOSE);
 
             IterableLogger.v(TAG, ">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n");
             String baseUrl = getBaseUrl();
@@ -100,7 +148,7 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                     }
 
                     url = new URL(builder.build().toString());
-                    urlConnection = (HttpURLConnection) url.openConnection();
+                    urlConnection = transport.openConnection(url);
 
                     urlConnection.setReadTimeout(GET_REQUEST_DEFAULT_TIMEOUT_MS);
                     urlConnection.setConnectTimeout(GET_REQUEST_DEFAULT_TIMEOUT_MS);
@@ -113,12 +161,22 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                     if (iterableApiRequest.authToken != null) {
                         urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_AUTHORIZATION, IterableConstants.HEADER_SDK_AUTH_FORMAT + iterableApiRequest.authToken);
                     }
+                    if (isCompressionEnabled()) {
+                        // Setting the header disables transparent decompression, the response is
+                        // decompressed when it is read below
+                        urlConnection.setRequestProperty(IterableConstants.HEADER_ACCEPT_ENCODING, IterableConstants.ENCODING_GZIP);
+                    }
+                    if (iterableApiRequest.eTag != null) {
+                        urlConnection.setRequestProperty(IterableConstants.HEADER_IF_NONE_MATCH, iterableApiRequest.eTag);
+                    }
 
-                    IterableLogger.v(TAG, "GET Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(urlConnection) + "\n body : \n" + iterableApiRequest.json.toString(2));
+                    if (verboseLogging) {
+                        IterableLogger.v(TAG, "GET Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(urlConnection) + "\n body : \n" + iterableApiRequest.json.toString(2));
+                    }
 
                 } else {
                     url = new URL(baseUrl + iterableApiRequest.resourcePath);
-                    urlConnection = (HttpURLConnection) url.openConnection();
+                    urlConnection = transport.openConnection(url);
                     urlConnection.setDoOutput(true);
                     urlConnection.setRequestMethod(iterableApiRequest.requestType);
 
@@ -136,13 +194,19 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                         urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_AUTHORIZATION, IterableConstants.HEADER_SDK_AUTH_FORMAT + iterableApiRequest.authToken);
                     }
 
-                    IterableLogger.v(TAG, "POST Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(urlConnection) + "\n body : \n" + iterableApiRequest.json.toString(2));
+                    byte[] body = iterableApiRequest.json.toString().getBytes(UTF_8);
+                    if (isCompressionEnabled() && body.length >= GZIP_MIN_BODY_BYTES) {
+                        body = gzip(body);
+                        urlConnection.setRequestProperty(IterableConstants.HEADER_CONTENT_ENCODING, IterableConstants.ENCODING_GZIP);
+                    }
+                    urlConnection.setFixedLengthStreamingMode(body.length);
 
-                    OutputStream os = urlConnection.getOutputStream();
-                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
-                    writer.write(iterableApiRequest.json.toString());
+                    if (verboseLogging) {
+                        IterableLogger.v(TAG, "POST Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(urlConnection) + "\n body : \n" + iterableApiRequest.json.toString(2));
+                    }
 
-                    writer.close();
+                    OutputStream os = urlConnection.getOutputStream();
+                    os.write(body);
                     os.close();
                 }
 
@@ -150,23 +214,39 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                 int responseCode = urlConnection.getResponseCode();
 
                 String error = null;
+                JSONObject jsonResponse = null;
+                String jsonError = null;
 
                 // Read the response body
                 try {
-                    BufferedReader in;
+                    InputStream responseStream;
                     if (responseCode >= 0 && responseCode < 400) {
-                        in = new BufferedReader(
-                                new InputStreamReader(urlConnection.getInputStream()));
+                        responseStream = urlConnection.getInputStream();
                     } else {
-                        InputStream errorStream = urlConnection.getErrorStream();
-                        if (errorStream != null) {
-                            in = new BufferedReader(
-                                    new InputStreamReader(errorStream));
-                        } else {
-                            in = null;
+                        responseStream = urlConnection.getErrorStream();
+                    }
+                    if (responseStream != null) {
+                        if (IterableConstants.ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                            responseStream = new GZIPInputStream(responseStream);
                         }
                     }
-                    if (in != null) {
+                    if (responseStream != null && responseCode == 200 && iterableApiRequest.legacyCallback == null) {
+                        // Successful responses can be large (e.g. in-app messages), so they are
+                        // parsed straight from the stream instead of being buffered into a String.
+                        // Legacy callbacks receive the raw body, so those responses are still read as text.
+                        try {
+                            jsonResponse = IterableJsonStreamParser.readObject(responseStream);
+                        } catch (JSONException e) {
+                            logError(iterableApiRequest, baseUrl, e);
+                            jsonError = e.getMessage();
+                        }
+                        responseStream.close();
+                    } else if (responseStream != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        // 304 responses have no body
+                        responseStream.close();
+                    } else if (responseStream != null) {
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(responseStream));
                         String inputLine;
                         StringBuffer response = new StringBuffer();
                         while ((inputLine = in.readLine()) != null) {
@@ -174,24 +254,25 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                         }
                         in.close();
                         requestResult = response.toString();
+
+                        try {
+                            jsonResponse = new JSONObject(requestResult);
+                        } catch (Exception e) {
+                            logError(iterableApiRequest, baseUrl, e);
+                            jsonError = e.getMessage();
+                        }
                     }
+                    // The body was read to the end and closed, so the socket can be reused
+                    connectionReusable = true;
                 } catch (IOException e) {
                     logError(iterableApiRequest, baseUrl, e);
                     error = e.getMessage();
                 }
 
-                // Parse JSON
-                JSONObject jsonResponse = null;
-                String jsonError = null;
-
-                try {
-                    jsonResponse = new JSONObject(requestResult);
+                if (verboseLogging && jsonResponse != null) {
                     IterableLogger.v(TAG, "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
                             "Response from : " + baseUrl + iterableApiRequest.resourcePath);
                     IterableLogger.v(TAG, jsonResponse.toString(2));
-                } catch (Exception e) {
-                    logError(iterableApiRequest, baseUrl, e);
-                    jsonError = e.getMessage();
                 }
 
                 // If getResponseCode() returned -1 (e.g. due to network inspector
@@ -220,20 +301,27 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                         errorMessage = "Internal Server Error";
                     }
 
-                    apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, errorMessage);
+                    long retryAfterMs = parseRetryAfter(urlConnection.getHeaderField(IterableConstants.HEADER_RETRY_AFTER));
+                    apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, errorMessage, retryAfterMs);
+                } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && iterableApiRequest.conditional) {
+                    JSONObject notModifiedJson = new JSONObject();
+                    notModifiedJson.put(IterableConstants.HTTP_STATUS_CODE, responseCode);
+                    apiResponse = IterableApiResponse.success(responseCode, requestResult, notModifiedJson);
                 } else if (responseCode == 200) {
-                    if (error == null && requestResult.length() > 0) {
-                        if (jsonError != null) {
-                            apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, "Could not parse json: " + jsonError);
-                        } else if (jsonResponse != null) {
-                            apiResponse = IterableApiResponse.success(responseCode, requestResult, jsonResponse);
-                        } else {
-                            apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, "Response is not a JSON object");
+                    if (error == null && jsonResponse != null && iterableApiRequest.conditional) {
+                        String eTag = urlConnection.getHeaderField(IterableConstants.HEADER_ETAG);
+                        if (eTag != null) {
+                            jsonResponse.put(IterableConstants.KEY_ETAG, eTag);
                         }
-                    } else if (error == null && requestResult.length() == 0) {
-                        apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, "No data received");
-                    } else if (error != null) {
+                    }
+                    if (error != null) {
                         apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, error);
+                    } else if (jsonError != null) {
+                        apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, "Could not parse json: " + jsonError);
+                    } else if (jsonResponse != null) {
+                        apiResponse = IterableApiResponse.success(responseCode, requestResult, jsonResponse);
+                    } else {
+                        apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, "No data received");
                     }
                 } else {
                     apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, "Received non-200 response: " + responseCode);
@@ -253,7 +341,7 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                 apiResponse = IterableApiResponse.failure(0, requestResult, null, e.getMessage());
             } finally {
                 if (urlConnection != null) {
-                    urlConnection.disconnect();
+                    transport.releaseConnection(urlConnection, connectionReusable);
                 }
             }
             IterableLogger.v(TAG, "======================================");
@@ -261,6 +349,45 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
         return apiResponse;
     }
 
+    private static boolean isCompressionEnabled() {
+        IterableConfig config = IterableApi.getInstance().config;
+        return config != null && config.enableRequestCompression;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+        gzipStream.write(body);
+        gzipStream.close();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Parses the value of a Retry-After header, which is either a number of seconds or an HTTP date.
+     *
+     * @param value header value
+     * @return delay in milliseconds, or 0 if the header is missing or invalid
+     */
+    static long parseRetryAfter(@Nullable String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            Date retryDate = httpDateFormat.parse(value);
+            return retryDate != null ? Math.max(0, retryDate.getTime() - IterableUtil.currentTimeMillis()) : 0;
+        } catch (ParseException e) {
+            IterableLogger.w(TAG, "Invalid Retry-After header: " + value);
+            return 0;
+        }
+    }
+
     /**
      * When autoRetry is enabled and this is an offline task, skip the inline retry.
      * The task stays in the DB and IterableTaskRunner will retry it once a valid JWT
@@ -395,7 +522,7 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
         handler.postDelayed(new Runnable() {
             @Override
             public void run() {
-                requestTask.execute(iterableApiRequest);
+                requestTask.executeOnNetworkExecutor(iterableApiRequest);
             }
         }, delay);
     }
@@ -463,6 +590,12 @@ class IterableApiRequest {
     IterableHelper.SuccessHandler successCallback;
     IterableHelper.FailureHandler failureCallback;
 
+    // Conditional GET requests send the ETag of the last response and report 304 Not Modified
+    // responses as a success, see RequestProcessor#processConditionalGetRequest
+    boolean conditional;
+    @Nullable
+    String eTag;
+
     enum ProcessorType {
         ONLINE {
             @NonNull
@@ -488,6 +621,11 @@ class IterableApiRequest {
         this.processorType = processorType;
     }
 
+    void setConditional(@Nullable String eTag) {
+        this.conditional = true;
+        this.eTag = eTag;
+    }
+
     IterableApiRequest(String apiKey, String baseUrl, String resourcePath, JSONObject json, String requestType, String authToken, IterableHelper.SuccessHandler onSuccess, IterableHelper.FailureHandler onFailure) {
         this.apiKey = apiKey;
         this.baseUrl = baseUrl;
@@ -568,13 +706,20 @@ class IterableApiResponse {
     final String responseBody;
     final JSONObject responseJson;
     final String errorMessage;
+    // Delay requested by the server through the Retry-After header, 0 if none
+    final long retryAfterMs;
 
     IterableApiResponse(boolean success, int responseCode, String responseBody, JSONObject responseJson, String errorMessage) {
+        this(success, responseCode, responseBody, responseJson, errorMessage, 0);
+    }
+
+    IterableApiResponse(boolean success, int responseCode, String responseBody, JSONObject responseJson, String errorMessage, long retryAfterMs) {
         this.success = success;
         this.responseCode = responseCode;
         this.responseBody = responseBody;
         this.responseJson = responseJson;
         this.errorMessage = errorMessage;
+        this.retryAfterMs = retryAfterMs;
     }
 
     static IterableApiResponse success(int responseCode, String body, @NonNull JSONObject json) {
@@ -584,4 +729,8 @@ class IterableApiResponse {
     static IterableApiResponse failure(int responseCode, String body, @Nullable JSONObject json, String errorMessage) {
         return new IterableApiResponse(false, responseCode, body, json, errorMessage);
     }
+
+    static IterableApiResponse failure(int responseCode, String body, @Nullable JSONObject json, String errorMessage, long retryAfterMs) {
+        return new IterableApiResponse(false, responseCode, body, json, errorMessage, retryAfterMs);
+    }
 }
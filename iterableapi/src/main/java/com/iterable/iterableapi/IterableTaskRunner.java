@@ -7,12 +7,32 @@ import android.os.Message;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Handler.Callback, IterableNetworkConnectivityManager.IterableNetworkMonitorListener, IterableActivityMonitor.AppStateCallback, IterableAuthManager.AuthTokenReadyListener {
     private static final String TAG = "IterableTaskRunner";
@@ -21,14 +41,46 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
     private IterableNetworkConnectivityManager networkConnectivityManager;
     private HealthMonitor healthMonitor;
     private ApiEndpointClassification classification;
+    @Nullable
+    private IterableOfflineQueueWorkScheduler workScheduler;
 
     private static final int RETRY_INTERVAL_SECONDS = 60;
 
+    // Backoff applied to a task after a transient failure. The delay doubles with each attempt
+    // and is randomized so that devices don't retry in lockstep.
+    private static final long INITIAL_RETRY_DELAY_MS = 10000;
+    private static final long MAX_RETRY_DELAY_MS = 60 * 60 * 1000;
+    private static final long MAX_RETRY_AFTER_MS = 24 * 60 * 60 * 1000;
+
+    // Number of consecutive transient failures after which the whole queue is paused
+    private static final int MAX_CONSECUTIVE_RETRIES = 3;
+
+    private static final long DISPATCH_KEEP_ALIVE_SECONDS = 30;
+
     private static final int OPERATION_PROCESS_TASKS = 100;
+    private static final int OPERATION_PROCESS_TASKS_IN_BACKGROUND = 101;
+
+    // WorkManager stops workers after 10 minutes
+    private static final long BACKGROUND_PROCESSING_TIMEOUT_MS = 9 * 60 * 1000;
+
+    // Endpoints whose queued requests can be combined into a single bulk request
+    private static final Map<String, String> BULK_ENDPOINTS = new HashMap<>();
+    static {
+        BULK_ENDPOINTS.put(IterableConstants.ENDPOINT_TRACK, IterableConstants.ENDPOINT_TRACK_BULK);
+    }
+
+    // Endpoints whose requests must reach the server in the order they were made. At most one of
+    // them is in flight at a time when tasks are sent concurrently.
+    private static final Set<String> ORDERED_ENDPOINTS = new HashSet<>(Arrays.asList(
+            IterableConstants.ENDPOINT_UPDATE_CART,
+            IterableConstants.ENDPOINT_TRACK_PURCHASE
+    ));
 
     private final HandlerThread networkThread = new HandlerThread("NetworkThread");
     Handler handler;
 
+    private ThreadPoolExecutor dispatchExecutor;
+
     enum TaskResult {
         SUCCESS, FAILURE, RETRY
     }
@@ -43,16 +95,23 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
     // Tracks whether processing is paused due to a JWT auth failure
     private volatile boolean isPausedForAuth = false;
 
+    // Time until which processing is paused after the server or the network asked us to back off
+    private final AtomicLong pausedUntil = new AtomicLong();
+    private final AtomicInteger consecutiveRetries = new AtomicInteger();
+    private final Random random = new Random();
+
     IterableTaskRunner(IterableTaskStorage taskStorage,
                        IterableActivityMonitor activityMonitor,
                        IterableNetworkConnectivityManager networkConnectivityManager,
                        HealthMonitor healthMonitor,
-                       ApiEndpointClassification classification) {
+                       ApiEndpointClassification classification,
+                       @Nullable IterableOfflineQueueWorkScheduler workScheduler) {
         this.taskStorage = taskStorage;
         this.activityMonitor = activityMonitor;
         this.networkConnectivityManager = networkConnectivityManager;
         this.healthMonitor = healthMonitor;
         this.classification = classification;
+        this.workScheduler = workScheduler;
         networkThread.start();
         handler = new Handler(networkThread.getLooper(), this);
         taskStorage.addTaskCreatedListener(this);
@@ -60,6 +119,14 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         activityMonitor.addCallback(this);
     }
 
+    IterableTaskRunner(IterableTaskStorage taskStorage,
+                       IterableActivityMonitor activityMonitor,
+                       IterableNetworkConnectivityManager networkConnectivityManager,
+                       HealthMonitor healthMonitor,
+                       ApiEndpointClassification classification) {
+        this(taskStorage, activityMonitor, networkConnectivityManager, healthMonitor, classification, null);
+    }
+
     // Preserved for backward compatibility with existing tests
     IterableTaskRunner(IterableTaskStorage taskStorage,
                        IterableActivityMonitor activityMonitor,
@@ -93,12 +160,25 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
 
     @Override
     public void onSwitchToForeground() {
+        if (workScheduler != null) {
+            workScheduler.cancelOfflineQueueWork();
+        }
         runNow();
     }
 
     @Override
     public void onSwitchToBackground() {
-
+        if (workScheduler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (hasQueuedTasks()) {
+                    workScheduler.scheduleOfflineQueueWork();
+                }
+            }
+        });
     }
 
     @Override
@@ -112,24 +192,83 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         handler.sendEmptyMessage(OPERATION_PROCESS_TASKS);
     }
 
-    private void scheduleRetry() {
-        handler.removeCallbacksAndMessages(OPERATION_PROCESS_TASKS);
-        handler.sendEmptyMessageDelayed(OPERATION_PROCESS_TASKS, RETRY_INTERVAL_SECONDS * 1000);
+    private void scheduleRetry(long delayMs) {
+        handler.removeMessages(OPERATION_PROCESS_TASKS);
+        handler.sendEmptyMessageDelayed(OPERATION_PROCESS_TASKS, delayMs);
+    }
+
+    /**
+     * Processes the queued tasks regardless of the app state. Blocks until processing stops,
+     * either because the queue is empty or because the remaining tasks have to be retried later.
+     * If the remaining tasks are only deferred (waiting for their retry time or for a server
+     * requested pause), a new background job is scheduled for when the next one becomes due.
+     *
+     * @return true if there are no tasks left that should be retried right away
+     */
+    @WorkerThread
+    boolean processTasksInBackground() {
+        CountDownLatch latch = new CountDownLatch(1);
+        handler.sendMessage(handler.obtainMessage(OPERATION_PROCESS_TASKS_IN_BACKGROUND, latch));
+        try {
+            if (!latch.await(BACKGROUND_PROCESSING_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                IterableLogger.w(TAG, "Timed out while processing tasks in the background");
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (!hasQueuedTasks()) {
+            return true;
+        }
+        long deferredDelay = getDeferredDelay();
+        if (deferredDelay > 0 && workScheduler != null) {
+            IterableLogger.d(TAG, "Remaining tasks are deferred, sending them in " + deferredDelay + "ms");
+            workScheduler.scheduleOfflineQueueWork(deferredDelay);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns how long until a queued task can be sent again, or 0 if a task is due now.
+     */
+    private long getDeferredDelay() {
+        long now = IterableUtil.currentTimeMillis();
+        long nextRunAt = taskStorage.getNextScheduledTask() != null ? now : taskStorage.getNextScheduledAt();
+        return Math.max(Math.max(nextRunAt, pausedUntil.get()) - now, 0);
+    }
+
+    private boolean hasQueuedTasks() {
+        try {
+            return taskStorage.getNumberOfTasks() > 0;
+        } catch (IllegalStateException e) {
+            IterableLogger.e(TAG, "Failed to get the number of queued tasks", e);
+            return false;
+        }
     }
 
     @WorkerThread
     @Override
     public boolean handleMessage(@NonNull Message msg) {
         if (msg.what == OPERATION_PROCESS_TASKS) {
-            processTasks();
+            processTasks(true);
+            return true;
+        }
+        if (msg.what == OPERATION_PROCESS_TASKS_IN_BACKGROUND) {
+            try {
+                processTasks(false);
+            } finally {
+                ((CountDownLatch) msg.obj).countDown();
+            }
             return true;
         }
         return false;
     }
 
     @WorkerThread
-    private void processTasks() {
-        if (!activityMonitor.isInForeground()) {
+    private void processTasks(boolean foregroundOnly) {
+        if (foregroundOnly && !activityMonitor.isInForeground()) {
             IterableLogger.d(TAG, "App not in foreground, skipping processing tasks");
             return;
         }
@@ -138,42 +277,87 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
             return;
         }
 
+        long pauseRemaining = pausedUntil.get() - IterableUtil.currentTimeMillis();
+        if (pauseRemaining > 0) {
+            IterableLogger.d(TAG, "Processing paused for " + pauseRemaining + "ms, skipping processing tasks");
+            scheduleRetry(pauseRemaining);
+            return;
+        }
+
         boolean autoRetry = IterableApi.getInstance().isAutoRetryOnJwtFailure();
 
         while (networkConnectivityManager.isConnected()) {
             IterableTask task = getNextActionableTask(autoRetry);
 
             if (task == null) {
+                scheduleNextDueTask();
                 return;
             }
 
-            boolean proceed = processTask(task, autoRetry);
+            boolean proceed;
+            List<IterableTask> batch = getBatchStartingWith(task);
+            if (batch.size() > 1) {
+                proceed = processBatch(batch, autoRetry);
+            } else if (getConcurrency() > 1 && !isAuthBlocked(autoRetry)) {
+                proceed = processConcurrently(getConcurrentTasksStartingWith(task), autoRetry);
+            } else {
+                proceed = processTask(task, autoRetry);
+            }
             if (!proceed) {
                 // Only schedule timed retry for non-auth failures.
                 // Auth failures will resume via onAuthTokenReady() callback.
                 if (!autoRetry || !isPausedForAuth) {
-                    scheduleRetry();
+                    long delay = pausedUntil.get() - IterableUtil.currentTimeMillis();
+                    scheduleRetry(delay > 0 ? delay : RETRY_INTERVAL_SECONDS * 1000);
                 }
                 return;
             }
         }
     }
 
+    /**
+     * Wakes up the runner when the earliest task that is waiting for a retry becomes due.
+     */
+    private void scheduleNextDueTask() {
+        long nextScheduledAt = taskStorage.getNextScheduledAt();
+        if (nextScheduledAt > 0) {
+            scheduleRetry(Math.max(nextScheduledAt - IterableUtil.currentTimeMillis(), 0));
+        }
+    }
+
     private IterableTask getNextActionableTask(boolean autoRetry) {
-        boolean authBlocked = isPausedForAuth ||
-                (autoRetry && !IterableApi.getInstance().getAuthManager().isAuthTokenReady());
-        if (!authBlocked) {
+        if (!isAuthBlocked(autoRetry)) {
             return taskStorage.getNextScheduledTask();
         }
         return taskStorage.getNextScheduledTaskNotRequiringJwt(classification);
     }
 
+    private boolean isAuthBlocked(boolean autoRetry) {
+        return isPausedForAuth ||
+                (autoRetry && !IterableApi.getInstance().getAuthManager().isAuthTokenReady());
+    }
+
     void setIsPausedForAuth(boolean paused) {
         this.isPausedForAuth = paused;
     }
 
+    // Tasks are marked as in flight while they are sent, so that they aren't dropped from a full
+    // queue and reported as failed while the request is actually sent
     @WorkerThread
     private boolean processTask(@NonNull IterableTask task, boolean autoRetry) {
+        if (!taskStorage.markTaskInFlight(task.id)) {
+            IterableLogger.d(TAG, "Task " + task.id + " was dropped before it was sent");
+            return true;
+        }
+        try {
+            return sendTask(task, autoRetry);
+        } finally {
+            taskStorage.clearTaskInFlight(task.id);
+        }
+    }
+
+    @WorkerThread
+    private boolean sendTask(@NonNull IterableTask task, boolean autoRetry) {
         if (task.taskType == IterableTaskType.API) {
             IterableApiResponse response = null;
             TaskResult result = TaskResult.FAILURE;
@@ -212,9 +396,12 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
             }
             callTaskCompletedListeners(task.id, result, response);
             if (result == TaskResult.RETRY) {
-                // Keep the task, stop further processing
-                return false;
+                // Keep the task and try it again later
+                return scheduleTaskRetry(Collections.singletonList(task), response);
             } else {
+                if (result == TaskResult.SUCCESS) {
+                    consecutiveRetries.set(0);
+                }
                 taskStorage.deleteTask(task.id);
                 return true;
             }
@@ -222,6 +409,328 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         return false;
     }
 
+    /**
+     * Returns the consecutive queued tasks, starting with the given one, that can be sent together
+     * in a single bulk request. If batching is disabled or the task has no bulk endpoint, the
+     * returned list only contains the given task.
+     */
+    @NonNull
+    private List<IterableTask> getBatchStartingWith(@NonNull IterableTask task) {
+        int batchSize = getBatchSize();
+        if (batchSize <= 1 || !BULK_ENDPOINTS.containsKey(task.name)) {
+            return Collections.singletonList(task);
+        }
+
+        List<IterableTask> candidates = taskStorage.getNextScheduledTasks(batchSize);
+        if (candidates == null || candidates.isEmpty() || !task.id.equals(candidates.get(0).id)) {
+            return Collections.singletonList(task);
+        }
+
+        List<IterableTask> batch = new ArrayList<>();
+        for (IterableTask candidate : candidates) {
+            if (!task.name.equals(candidate.name)) {
+                break;
+            }
+            batch.add(candidate);
+        }
+        return batch;
+    }
+
+    private int getBatchSize() {
+        IterableConfig config = IterableApi.getInstance().config;
+        return config != null ? config.offlineTaskBatchSize : 1;
+    }
+
+    @WorkerThread
+    private boolean processBatch(@NonNull List<IterableTask> batch, boolean autoRetry) {
+        List<IterableTask> queuedTasks = new ArrayList<>(batch.size());
+        for (IterableTask task : batch) {
+            if (taskStorage.markTaskInFlight(task.id)) {
+                queuedTasks.add(task);
+            }
+        }
+        if (queuedTasks.isEmpty()) {
+            return true;
+        }
+        try {
+            return sendBatch(queuedTasks, autoRetry);
+        } finally {
+            for (IterableTask task : queuedTasks) {
+                taskStorage.clearTaskInFlight(task.id);
+            }
+        }
+    }
+
+    @WorkerThread
+    private boolean sendBatch(@NonNull List<IterableTask> batch, boolean autoRetry) {
+        List<IterableTask> sentTasks = new ArrayList<>();
+        JSONArray events = new JSONArray();
+        IterableApiResponse response;
+        try {
+            String apiKey = null;
+            for (IterableTask task : batch) {
+                JSONObject taskData = getTaskDataWithDate(task);
+                String taskApiKey = taskData.getString("apiKey");
+                if (apiKey != null && !apiKey.equals(taskApiKey)) {
+                    // Remaining tasks will be picked up by the next batch
+                    break;
+                }
+                apiKey = taskApiKey;
+                events.put(taskData.getJSONObject("data"));
+                sentTasks.add(task);
+            }
+
+            JSONObject requestJson = new JSONObject();
+            requestJson.put(IterableConstants.KEY_EVENTS, events);
+            IterableApiRequest request = new IterableApiRequest(apiKey, BULK_ENDPOINTS.get(batch.get(0).name), requestJson, IterableApiRequest.POST, IterableApi.getInstance().getAuthToken(), null, null);
+            request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
+            response = IterableRequestTask.executeApiRequest(request);
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Error while building batch request, processing tasks individually", e);
+            return processIndividually(batch, autoRetry);
+        }
+
+        if (!response.success) {
+            if (autoRetry && isJwtFailure(response)) {
+                IterableLogger.d(TAG, "JWT auth failure on batch of " + sentTasks.size() + " tasks. Retaining tasks and pausing processing.");
+                IterableApi.getInstance().getAuthManager().setAuthTokenInvalid();
+                isPausedForAuth = true;
+                callTaskCompletedListeners(sentTasks, TaskResult.RETRY, response);
+                return false;
+            }
+
+            if (isJwtFailure(response)) {
+                callTaskCompletedListeners(sentTasks, TaskResult.FAILURE, response);
+                deleteTasks(sentTasks);
+                return true;
+            }
+
+            if (isPermanentFailure(response)) {
+                // The bulk request was rejected as a whole. Send the events one by one so that
+                // a single invalid event doesn't cause the rest of the batch to be dropped.
+                return processIndividually(sentTasks, autoRetry);
+            }
+
+            callTaskCompletedListeners(sentTasks, TaskResult.RETRY, response);
+            return scheduleTaskRetry(sentTasks, response);
+        }
+
+        consecutiveRetries.set(0);
+        IterableLogger.d(TAG, "Sent batch of " + sentTasks.size() + " tasks");
+        for (int i = 0; i < sentTasks.size(); i++) {
+            IterableTask task = sentTasks.get(i);
+            if (isRejectedInBulkResponse(events.optJSONObject(i), response.responseJson)) {
+                callTaskCompletedListeners(task.id, TaskResult.FAILURE,
+                        IterableApiResponse.failure(response.responseCode, response.responseBody, response.responseJson, "Event was rejected by the bulk request"));
+            } else {
+                callTaskCompletedListeners(task.id, TaskResult.SUCCESS, response);
+            }
+        }
+        deleteTasks(sentTasks);
+        return true;
+    }
+
+    @WorkerThread
+    private boolean processIndividually(@NonNull List<IterableTask> tasks, boolean autoRetry) {
+        for (IterableTask task : tasks) {
+            if (!processTask(task, autoRetry)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void deleteTasks(@NonNull List<IterableTask> tasks) {
+        List<String> taskIds = new ArrayList<>(tasks.size());
+        for (IterableTask task : tasks) {
+            taskIds.add(task.id);
+        }
+        taskStorage.deleteTasks(taskIds);
+    }
+
+    /**
+     * Checks whether the event was reported as rejected in the response to a bulk request,
+     * because of an invalid user identifier or a disallowed event name.
+     */
+    private boolean isRejectedInBulkResponse(@Nullable JSONObject event, @Nullable JSONObject responseJson) {
+        if (event == null || responseJson == null) {
+            return false;
+        }
+        return containsString(responseJson.optJSONArray(IterableConstants.KEY_INVALID_EMAILS), event.optString(IterableConstants.KEY_EMAIL, null)) ||
+                containsString(responseJson.optJSONArray(IterableConstants.KEY_INVALID_USER_IDS), event.optString(IterableConstants.KEY_USER_ID, null)) ||
+                containsString(responseJson.optJSONArray(IterableConstants.KEY_DISALLOWED_EVENT_NAMES), event.optString(IterableConstants.KEY_EVENT_NAME, null));
+    }
+
+    private static boolean containsString(@Nullable JSONArray array, @Nullable String value) {
+        if (array == null || value == null) {
+            return false;
+        }
+        for (int i = 0; i < array.length(); i++) {
+            if (value.equals(array.optString(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reschedules tasks after a transient failure. Each task is postponed with exponential backoff,
+     * or by the delay the server requested in the Retry-After header, so that a task that keeps
+     * failing doesn't hold back the rest of the queue. Failures that affect every request, such as
+     * rate limiting, an unavailable server or a network error, pause the whole queue instead.
+     *
+     * @return true if processing can continue with the next task
+     */
+    @WorkerThread
+    private boolean scheduleTaskRetry(@NonNull List<IterableTask> tasks, @Nullable IterableApiResponse response) {
+        long now = IterableUtil.currentTimeMillis();
+        long retryDelay = 0;
+        boolean rescheduled = true;
+        for (IterableTask task : tasks) {
+            int attempts = task.attempts + 1;
+            long delay = getRetryDelay(attempts, response);
+            retryDelay = Math.max(retryDelay, delay);
+            if (ORDERED_ENDPOINTS.contains(task.name)) {
+                // Ordered requests of every endpoint wait for this one, e.g. a purchase is not sent
+                // ahead of the cart update that preceded it
+                taskStorage.deferTasks(ORDERED_ENDPOINTS, now + delay);
+            }
+            rescheduled &= taskStorage.updateRetrySchedule(task.id, attempts, now, now + delay);
+            IterableLogger.d(TAG, "Retrying task " + task.id + " in " + delay + "ms (attempt " + attempts + ")");
+        }
+
+        if (!rescheduled || isQueueWideFailure(response) ||
+                consecutiveRetries.incrementAndGet() >= MAX_CONSECUTIVE_RETRIES) {
+            pauseUntil(now + retryDelay);
+            return false;
+        }
+        return true;
+    }
+
+    // Tasks that are processed concurrently can fail with different delays, e.g. a Retry-After
+    // of an hour and a 10 second backoff, so only a later deadline replaces the current one
+    private void pauseUntil(long time) {
+        long current;
+        do {
+            current = pausedUntil.get();
+        } while (time > current && !pausedUntil.compareAndSet(current, time));
+    }
+
+    @VisibleForTesting
+    long getPausedUntil() {
+        return pausedUntil.get();
+    }
+
+    /**
+     * Returns the delay before the next attempt of a task: the server provided Retry-After delay
+     * if any, otherwise an exponential backoff with jitter based on the number of attempts.
+     */
+    long getRetryDelay(int attempts, @Nullable IterableApiResponse response) {
+        if (response != null && response.retryAfterMs > 0) {
+            long retryAfter = Math.min(response.retryAfterMs, MAX_RETRY_AFTER_MS);
+            return retryAfter + random.nextInt((int) (retryAfter / 10) + 1);
+        }
+        long delay = Math.min(INITIAL_RETRY_DELAY_MS << Math.min(Math.max(attempts - 1, 0), 20), MAX_RETRY_DELAY_MS);
+        return delay / 2 + random.nextInt((int) (delay / 2) + 1);
+    }
+
+    /**
+     * Returns true for transient failures that would affect any request sent right now:
+     * rate limiting, an unavailable server and network-level errors.
+     */
+    private boolean isQueueWideFailure(@Nullable IterableApiResponse response) {
+        if (response == null) {
+            return true;
+        }
+        int code = response.responseCode;
+        return code == 0 || code == 429 || code == 503;
+    }
+
+    private int getConcurrency() {
+        IterableConfig config = IterableApi.getInstance().config;
+        return config != null ? config.offlineProcessingConcurrency : 1;
+    }
+
+    /**
+     * Returns the queued tasks, starting with the given one, that can be sent at the same time.
+     * Only one task to an ordered endpoint is included so that those requests keep their order.
+     */
+    @NonNull
+    private List<IterableTask> getConcurrentTasksStartingWith(@NonNull IterableTask task) {
+        List<IterableTask> candidates = taskStorage.getNextScheduledTasks(getConcurrency());
+        if (candidates == null || candidates.isEmpty() || !task.id.equals(candidates.get(0).id)) {
+            return Collections.singletonList(task);
+        }
+
+        List<IterableTask> tasks = new ArrayList<>();
+        boolean hasOrderedTask = false;
+        for (IterableTask candidate : candidates) {
+            if (ORDERED_ENDPOINTS.contains(candidate.name)) {
+                if (hasOrderedTask) {
+                    continue;
+                }
+                hasOrderedTask = true;
+            }
+            tasks.add(candidate);
+        }
+        return tasks;
+    }
+
+    @WorkerThread
+    private boolean processConcurrently(@NonNull List<IterableTask> tasks, final boolean autoRetry) {
+        if (tasks.size() == 1) {
+            return processTask(tasks.get(0), autoRetry);
+        }
+
+        List<Future<Boolean>> results = new ArrayList<>(tasks.size());
+        for (final IterableTask task : tasks) {
+            results.add(getDispatchExecutor().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return processTask(task, autoRetry);
+                }
+            }));
+        }
+
+        boolean proceed = true;
+        for (Future<Boolean> result : results) {
+            try {
+                proceed &= result.get();
+            } catch (Exception e) {
+                IterableLogger.e(TAG, "Error while processing tasks concurrently", e);
+                proceed = false;
+            }
+        }
+        return proceed;
+    }
+
+    // Dispatch threads are daemon threads that time out when idle, so the pool doesn't keep the
+    // process alive or hold threads between batches. The pool follows the configured concurrency.
+    @VisibleForTesting
+    ThreadPoolExecutor getDispatchExecutor() {
+        int concurrency = getConcurrency();
+        if (dispatchExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            dispatchExecutor = new ThreadPoolExecutor(concurrency, concurrency, DISPATCH_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "IterableTaskDispatch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            dispatchExecutor.allowCoreThreadTimeOut(true);
+        } else if (concurrency > dispatchExecutor.getMaximumPoolSize()) {
+            dispatchExecutor.setMaximumPoolSize(concurrency);
+            dispatchExecutor.setCorePoolSize(concurrency);
+        } else if (concurrency < dispatchExecutor.getMaximumPoolSize()) {
+            dispatchExecutor.setCorePoolSize(concurrency);
+            dispatchExecutor.setMaximumPoolSize(concurrency);
+        }
+        return dispatchExecutor;
+    }
+
     JSONObject getTaskDataWithDate(IterableTask task) {
         try {
             JSONObject jsonData = new JSONObject(task.data);
@@ -260,6 +769,13 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         return response.responseCode == 401;
     }
 
+    @WorkerThread
+    private void callTaskCompletedListeners(@NonNull List<IterableTask> tasks, TaskResult result, IterableApiResponse response) {
+        for (IterableTask task : tasks) {
+            callTaskCompletedListeners(task.id, result, response);
+        }
+    }
+
     @WorkerThread
     private void callTaskCompletedListeners(final String taskId, final TaskResult result, final IterableApiResponse response) {
         for (final TaskCompletedListener listener : taskCompletedListeners) {
@@ -1,20 +1,37 @@
 package com.iterable.iterableapi;
 
-import android.annotation.SuppressLint;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 class IterableTaskStorage {
 
@@ -40,6 +57,21 @@ class IterableTaskStorage {
     static final String MODIFIED_AT = "modified";
     static final String CREATED_AT = "created";
     static final String VERSION = "version";
+    static final String HEADER_ID = "header_id";
+    static final String ENCODING = "encoding";
+
+    static final String ITERABLE_TASK_HEADER_TABLE_NAME = "OfflineTaskHeader";
+    static final String API_KEY = "api_key";
+    static final String REQUEST_TYPE = "request_type";
+
+    // Formats of the data column. Compact formats only store the request body; the api key and
+    // request type are stored once in the header table and the resource path is the task name.
+    static final int ENCODING_REQUEST_JSON = 0;
+    static final int ENCODING_PAYLOAD_JSON = 1;
+    static final int ENCODING_PAYLOAD_DEFLATE = 2;
+
+    // Request bodies larger than this are compressed
+    private static final int DEFLATE_THRESHOLD_BYTES = 512;
 
     static final String OFFLINE_TASK_COLUMN_DATA = " (" + TASK_ID + " TEXT PRIMARY KEY," +
             NAME + " TEXT," +
@@ -55,11 +87,71 @@ class IterableTaskStorage {
             DATA + " TEXT," +
             ERROR + " TEXT," +
             TYPE + " TEXT," +
-            ATTEMPTS + " INTEGER" + ")";
+            ATTEMPTS + " INTEGER," +
+            HEADER_ID + " INTEGER," +
+            ENCODING + " INTEGER" + ")";
+
+    static final String OFFLINE_TASK_HEADER_COLUMN_DATA = " (" + HEADER_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            API_KEY + " TEXT NOT NULL," +
+            REQUEST_TYPE + " TEXT NOT NULL," +
+            "UNIQUE (" + API_KEY + ", " + REQUEST_TYPE + "))";
 
-    private static final String QUERY_GET_TASK_BY_ID = "select * from OfflineTask where task_id = ?";
+    static final String OFFLINE_TASK_INDEX_SCHEDULED = "CREATE INDEX IF NOT EXISTS idx_offline_task_scheduled ON " +
+            ITERABLE_TASK_TABLE_NAME + " (" + SCHEDULED_AT + ")";
+    static final String OFFLINE_TASK_INDEX_NAME = "CREATE INDEX IF NOT EXISTS idx_offline_task_name ON " +
+            ITERABLE_TASK_TABLE_NAME + " (" + NAME + ", " + SCHEDULED_AT + ")";
+
+    // Columns are always selected in this order so that createTaskFromCursor can read them by
+    // position instead of looking up each column index by name
+    private static final String TASK_COLUMNS = TASK_ID + ", " + NAME + ", " + VERSION + ", " + CREATED_AT + ", " +
+            MODIFIED_AT + ", " + LAST_ATTEMPTED_AT + ", " + SCHEDULED_AT + ", " + REQUESTED_AT + ", " +
+            PROCESSING + ", " + FAILED + ", " + BLOCKING + ", " + DATA + ", " + ERROR + ", " + TYPE + ", " + ATTEMPTS + ", " +
+            ENCODING + ", " + API_KEY + ", " + REQUEST_TYPE;
+    private static final String TASK_TABLES = ITERABLE_TASK_TABLE_NAME + " left join " + ITERABLE_TASK_HEADER_TABLE_NAME +
+            " using (" + HEADER_ID + ")";
+    private static final int COLUMN_TASK_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_VERSION = 2;
+    private static final int COLUMN_CREATED_AT = 3;
+    private static final int COLUMN_MODIFIED_AT = 4;
+    private static final int COLUMN_LAST_ATTEMPTED_AT = 5;
+    private static final int COLUMN_SCHEDULED_AT = 6;
+    private static final int COLUMN_REQUESTED_AT = 7;
+    private static final int COLUMN_PROCESSING = 8;
+    private static final int COLUMN_FAILED = 9;
+    private static final int COLUMN_BLOCKING = 10;
+    private static final int COLUMN_DATA = 11;
+    private static final int COLUMN_ERROR = 12;
+    private static final int COLUMN_TYPE = 13;
+    private static final int COLUMN_ATTEMPTS = 14;
+    private static final int COLUMN_ENCODING = 15;
+    private static final int COLUMN_API_KEY = 16;
+    private static final int COLUMN_REQUEST_TYPE = 17;
+
+    private static final String QUERY_GET_TASK_BY_ID = "select " + TASK_COLUMNS + " from " + TASK_TABLES + " where task_id = ?";
+    private static final String QUERY_NEXT_SCHEDULED_TASKS = "select " + TASK_COLUMNS + " from " + TASK_TABLES + " where " +
+            SCHEDULED_AT + " <= ? order by " + SCHEDULED_AT + ", " + CREATED_AT + " limit ";
+
+    private static final String STATEMENT_INSERT_TASK = "INSERT INTO " + ITERABLE_TASK_TABLE_NAME + " (" +
+            TASK_ID + ", " + NAME + ", " + VERSION + ", " + CREATED_AT + ", " + MODIFIED_AT + ", " +
+            LAST_ATTEMPTED_AT + ", " + SCHEDULED_AT + ", " + REQUESTED_AT + ", " + PROCESSING + ", " +
+            FAILED + ", " + BLOCKING + ", " + DATA + ", " + ERROR + ", " + TYPE + ", " + ATTEMPTS + ", " +
+            HEADER_ID + ", " + ENCODING + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String STATEMENT_DELETE_TASK = "DELETE FROM " + ITERABLE_TASK_TABLE_NAME + " WHERE " + TASK_ID + " = ?";
 
     private SQLiteDatabase database;
+    private SQLiteStatement insertTaskStatement;
+    private SQLiteStatement deleteTaskStatement;
+
+    // Ids of the header table rows, keyed by api key and request type
+    private final HashMap<String, Long> headerIds = new HashMap<>();
+
+    // Number of tasks in the table, kept in sync with inserts and deletes so that it doesn't
+    // have to be queried for every scheduled request. -1 until it is first loaded.
+    private final AtomicLong taskCount = new AtomicLong(-1);
+
+    // Tasks that the task runner is sending. They are never dropped to make room for new tasks.
+    private final Set<String> inFlightTaskIds = new HashSet<>();
     private IterableDatabaseManager databaseManager;
 
     interface TaskCreatedListener {
@@ -98,6 +190,59 @@ class IterableTaskStorage {
         taskCreatedListeners.remove(listener);
     }
 
+    /**
+     * Makes room for a new task when the offline queue is full
+     */
+    interface OverflowHandler {
+        /**
+         * Called while holding the storage lock. Tasks that are being sent can't be dropped, see
+         * {@link #markTaskInFlight(String)}.
+         *
+         * @return id of the task that was dropped to make room, or null if the new task can't be stored
+         */
+        @Nullable
+        String dropTaskForOverflow();
+    }
+
+    /**
+     * Stores a new task if the offline queue has room for it, or if the overflow handler makes room.
+     * The capacity check, the drop and the insert happen while holding the storage lock, so that
+     * concurrent callers can't push the queue past {@link IterableConstants#OFFLINE_TASKS_LIMIT}.
+     *
+     * @return unique id of the task created, or null if the queue is full or the task could not be stored
+     */
+    @Nullable
+    String createTask(String name, IterableTaskType type, String data, @NonNull OverflowHandler overflowHandler) {
+        synchronized (this) {
+            try {
+                if (getNumberOfTasks() >= IterableConstants.OFFLINE_TASKS_LIMIT && overflowHandler.dropTaskForOverflow() == null) {
+                    return null;
+                }
+            } catch (IllegalStateException e) {
+                IterableLogger.e(TAG, "Failed to count tasks", e);
+                return null;
+            }
+            return createTask(name, type, data);
+        }
+    }
+
+    /**
+     * Marks a task as being sent, so that it isn't dropped when the queue overflows
+     *
+     * @return false if the task is no longer queued, e.g. because it was dropped, and must not be sent
+     */
+    synchronized boolean markTaskInFlight(@NonNull String id) {
+        if (isDatabaseReady() && DatabaseUtils.queryNumEntries(database, ITERABLE_TASK_TABLE_NAME, TASK_ID + " = ?", new String[]{id}) == 0) {
+            return false;
+        }
+        inFlightTaskIds.add(id);
+        return true;
+    }
+
+    synchronized void clearTaskInFlight(@NonNull String id) {
+        inFlightTaskIds.remove(id);
+    }
+
     /**
      * Creates a new instance with default values of IterableTask and stores it in the database
      *
@@ -109,43 +254,41 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) {
             return null;
         }
-        ContentValues contentValues = new ContentValues();
         final IterableTask iterableTask = new IterableTask(name, IterableTaskType.API, data);
-        contentValues.put(TASK_ID, iterableTask.id);
-        contentValues.put(NAME, iterableTask.name);
-        contentValues.put(VERSION, iterableTask.version);
-        contentValues.put(CREATED_AT, iterableTask.createdAt);
-        if (iterableTask.modifiedAt != 0) {
-            contentValues.put(MODIFIED_AT, iterableTask.modifiedAt);
-        }
-        if (iterableTask.lastAttemptedAt != 0) {
-            contentValues.put(LAST_ATTEMPTED_AT, iterableTask.lastAttemptedAt);
-        }
-        if (iterableTask.scheduledAt != 0) {
-            contentValues.put(SCHEDULED_AT, iterableTask.scheduledAt);
-        }
-        if (iterableTask.requestedAt != 0) {
-            contentValues.put(REQUESTED_AT, iterableTask.requestedAt);
-        }
-        contentValues.put(PROCESSING, iterableTask.processing);
-        contentValues.put(FAILED, iterableTask.failed);
-        contentValues.put(BLOCKING, iterableTask.blocking);
-        if (iterableTask.data != null) {
-            contentValues.put(DATA, iterableTask.data);
-        }
-        if (iterableTask.taskFailureData != null) {
-            contentValues.put(ERROR, iterableTask.taskFailureData);
+        long rowId;
+        synchronized (this) {
+            SQLiteStatement statement = getInsertTaskStatement();
+            statement.bindString(1, iterableTask.id);
+            bindStringOrNull(statement, 2, iterableTask.name);
+            statement.bindLong(3, iterableTask.version);
+            statement.bindLong(4, iterableTask.createdAt);
+            bindLongOrNull(statement, 5, iterableTask.modifiedAt);
+            bindLongOrNull(statement, 6, iterableTask.lastAttemptedAt);
+            bindLongOrNull(statement, 7, iterableTask.scheduledAt);
+            bindLongOrNull(statement, 8, iterableTask.requestedAt);
+            statement.bindLong(9, iterableTask.processing ? 1 : 0);
+            statement.bindLong(10, iterableTask.failed ? 1 : 0);
+            statement.bindLong(11, iterableTask.blocking ? 1 : 0);
+            bindStringOrNull(statement, 13, iterableTask.taskFailureData);
+            statement.bindString(14, iterableTask.taskType.toString());
+            statement.bindLong(15, iterableTask.attempts);
+            try {
+                bindCompactData(statement, iterableTask);
+                rowId = statement.executeInsert();
+            } catch (SQLException e) {
+                IterableLogger.e(TAG, "Failed to insert task", e);
+                rowId = -1;
+            } finally {
+                statement.clearBindings();
+            }
+            if (rowId != -1) {
+                adjustTaskCount(1);
+            }
         }
-
-        contentValues.put(TYPE, iterableTask.taskType.toString());
-        contentValues.put(ATTEMPTS, iterableTask.attempts);
-
-        long rowId = database.insert(ITERABLE_TASK_TABLE_NAME, null, contentValues);
         if (rowId == -1) {
             notifyDBError();
             return null;
         }
-        contentValues.clear();
 
         // Call through Handler to make sure we don't call the listeners immediately, as the caller may need additional processing
         new Handler(Looper.getMainLooper()).post(new Runnable() {
@@ -160,6 +303,136 @@ class IterableTaskStorage {
         return iterableTask.id;
     }
 
+    /**
+     * Binds the task data, header id and encoding columns. The request body is stored on its own
+     * and compressed when it is large. Data that isn't a serialized request for the task endpoint
+     * is stored as is.
+     */
+    private void bindCompactData(SQLiteStatement statement, IterableTask task) {
+        JSONObject request = null;
+        try {
+            request = task.data != null ? new JSONObject(task.data) : null;
+        } catch (JSONException e) {
+            IterableLogger.w(TAG, "Task data is not a JSON object, storing it as is");
+        }
+
+        String apiKey = request != null ? request.optString("apiKey", null) : null;
+        String requestType = request != null ? request.optString("requestType", null) : null;
+        JSONObject payload = request != null ? request.optJSONObject("data") : null;
+        boolean isTaskRequest = request != null && task.name != null && task.name.equals(request.optString("resourcePath", null));
+        long headerId = apiKey != null && requestType != null && payload != null && isTaskRequest ? getHeaderId(apiKey, requestType) : -1;
+
+        if (headerId == -1) {
+            bindStringOrNull(statement, 12, task.data);
+            statement.bindNull(16);
+            statement.bindLong(17, ENCODING_REQUEST_JSON);
+            return;
+        }
+
+        String payloadString = payload.toString();
+        byte[] payloadBytes = payloadString.getBytes(UTF_8);
+        byte[] compressedPayload = payloadBytes.length > DEFLATE_THRESHOLD_BYTES ? deflate(payloadBytes) : null;
+        if (compressedPayload != null && compressedPayload.length < payloadBytes.length) {
+            statement.bindBlob(12, compressedPayload);
+            statement.bindLong(17, ENCODING_PAYLOAD_DEFLATE);
+        } else {
+            statement.bindString(12, payloadString);
+            statement.bindLong(17, ENCODING_PAYLOAD_JSON);
+        }
+        statement.bindLong(16, headerId);
+    }
+
+    /**
+     * Returns the id of the header row for the given api key and request type, inserting it if
+     * needed. Must be called while holding the lock on this instance.
+     *
+     * @return header id, or -1 if the header could not be stored
+     */
+    private long getHeaderId(@NonNull String apiKey, @NonNull String requestType) {
+        String key = apiKey + "\n" + requestType;
+        Long headerId = headerIds.get(key);
+        if (headerId != null) {
+            return headerId;
+        }
+
+        String[] selectionArgs = new String[]{apiKey, requestType};
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(API_KEY, apiKey);
+            contentValues.put(REQUEST_TYPE, requestType);
+            database.insertWithOnConflict(ITERABLE_TASK_HEADER_TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+            headerId = DatabaseUtils.longForQuery(database, "select " + HEADER_ID + " from " + ITERABLE_TASK_HEADER_TABLE_NAME +
+                    " where " + API_KEY + " = ? and " + REQUEST_TYPE + " = ?", selectionArgs);
+        } catch (SQLException e) {
+            IterableLogger.e(TAG, "Failed to store task header", e);
+            return -1;
+        }
+        headerIds.put(key, headerId);
+        return headerId;
+    }
+
+    @Nullable
+    private static byte[] deflate(@NonNull byte[] value) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(outputStream);
+            deflaterStream.write(value);
+            deflaterStream.close();
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Failed to compress task data", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String inflate(@NonNull byte[] value) {
+        try {
+            InflaterInputStream inflaterStream = new InflaterInputStream(new ByteArrayInputStream(value));
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(value.length * 4);
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inflaterStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            inflaterStream.close();
+            return outputStream.toString(UTF_8.name());
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Failed to decompress task data", e);
+            return null;
+        }
+    }
+
+    private SQLiteStatement getInsertTaskStatement() {
+        if (insertTaskStatement == null) {
+            insertTaskStatement = database.compileStatement(STATEMENT_INSERT_TASK);
+        }
+        return insertTaskStatement;
+    }
+
+    private SQLiteStatement getDeleteTaskStatement() {
+        if (deleteTaskStatement == null) {
+            deleteTaskStatement = database.compileStatement(STATEMENT_DELETE_TASK);
+        }
+        return deleteTaskStatement;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, @Nullable String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static void bindLongOrNull(SQLiteStatement statement, int index, long value) {
+        if (value != 0) {
+            statement.bindLong(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
     /**
      * Gets a Task for the task id provided. Returns null if the database is null.
      *
@@ -185,7 +458,6 @@ class IterableTaskStorage {
         return task;
     }
 
-    @SuppressLint("Range")
     private IterableTask createTaskFromCursor(Cursor cursor) {
         String id, name;
         IterableTaskType type = null;
@@ -195,47 +467,69 @@ class IterableTaskStorage {
         boolean processing = false, failed = false, blocking = false;
         String data = null, error = null;
 
-        id = cursor.getString(cursor.getColumnIndex(TASK_ID));
-        name = cursor.getString(cursor.getColumnIndex(NAME));
-        version = cursor.getInt(cursor.getColumnIndex(VERSION));
-        dateCreated = cursor.getLong(cursor.getColumnIndex(CREATED_AT));
-        if (!cursor.isNull(cursor.getColumnIndex(MODIFIED_AT))) {
-            dateModified = cursor.getLong(cursor.getColumnIndex(MODIFIED_AT));
+        id = cursor.getString(COLUMN_TASK_ID);
+        name = cursor.getString(COLUMN_NAME);
+        version = cursor.getInt(COLUMN_VERSION);
+        dateCreated = cursor.getLong(COLUMN_CREATED_AT);
+        if (!cursor.isNull(COLUMN_MODIFIED_AT)) {
+            dateModified = cursor.getLong(COLUMN_MODIFIED_AT);
         }
-        if (!cursor.isNull(cursor.getColumnIndex(LAST_ATTEMPTED_AT))) {
-            dateLastAttempted = cursor.getLong(cursor.getColumnIndex(LAST_ATTEMPTED_AT));
+        if (!cursor.isNull(COLUMN_LAST_ATTEMPTED_AT)) {
+            dateLastAttempted = cursor.getLong(COLUMN_LAST_ATTEMPTED_AT);
         }
-        if (!cursor.isNull(cursor.getColumnIndex(SCHEDULED_AT))) {
-            dateScheduled = cursor.getLong(cursor.getColumnIndex(SCHEDULED_AT));
+        if (!cursor.isNull(COLUMN_SCHEDULED_AT)) {
+            dateScheduled = cursor.getLong(COLUMN_SCHEDULED_AT);
         }
-        if (!cursor.isNull(cursor.getColumnIndex(REQUESTED_AT))) {
-            dateRequested = cursor.getLong(cursor.getColumnIndex(REQUESTED_AT));
+        if (!cursor.isNull(COLUMN_REQUESTED_AT)) {
+            dateRequested = cursor.getLong(COLUMN_REQUESTED_AT);
         }
-        if (!cursor.isNull(cursor.getColumnIndex(PROCESSING))) {
-            processing = cursor.getInt(cursor.getColumnIndex(PROCESSING)) > 0;
+        if (!cursor.isNull(COLUMN_PROCESSING)) {
+            processing = cursor.getInt(COLUMN_PROCESSING) > 0;
         }
-        if (!cursor.isNull(cursor.getColumnIndex(FAILED))) {
-            failed = cursor.getInt(cursor.getColumnIndex(FAILED)) > 0;
+        if (!cursor.isNull(COLUMN_FAILED)) {
+            failed = cursor.getInt(COLUMN_FAILED) > 0;
         }
-        if (!cursor.isNull(cursor.getColumnIndex(BLOCKING))) {
-            blocking = cursor.getInt(cursor.getColumnIndex(BLOCKING)) > 0;
+        if (!cursor.isNull(COLUMN_BLOCKING)) {
+            blocking = cursor.getInt(COLUMN_BLOCKING) > 0;
         }
-        if (!cursor.isNull(cursor.getColumnIndex(DATA))) {
-            data = cursor.getString(cursor.getColumnIndex(DATA));
+        if (!cursor.isNull(COLUMN_DATA)) {
+            data = readData(cursor, name);
         }
-        if (!cursor.isNull(cursor.getColumnIndex(ERROR))) {
-            error = cursor.getString(cursor.getColumnIndex(ERROR));
+        if (!cursor.isNull(COLUMN_ERROR)) {
+            error = cursor.getString(COLUMN_ERROR);
         }
-        if (!cursor.isNull(cursor.getColumnIndex(TYPE))) {
-            type = IterableTaskType.valueOf(cursor.getString(cursor.getColumnIndex(TYPE)));
+        if (!cursor.isNull(COLUMN_TYPE)) {
+            type = IterableTaskType.valueOf(cursor.getString(COLUMN_TYPE));
         }
-        if (!cursor.isNull(cursor.getColumnIndex(ATTEMPTS))) {
-            attempts = cursor.getInt(cursor.getColumnIndex(ATTEMPTS));
+        if (!cursor.isNull(COLUMN_ATTEMPTS)) {
+            attempts = cursor.getInt(COLUMN_ATTEMPTS);
         }
 
         return new IterableTask(id, name, version, dateCreated, dateModified, dateLastAttempted, dateScheduled, dateRequested, processing, failed, blocking, data, error, type, attempts);
     }
 
+    /**
+     * Reads the data column and rebuilds the serialized request for compact formats.
+     */
+    @Nullable
+    private String readData(Cursor cursor, String name) {
+        int encoding = cursor.isNull(COLUMN_ENCODING) ? ENCODING_REQUEST_JSON : cursor.getInt(COLUMN_ENCODING);
+        if (encoding == ENCODING_REQUEST_JSON) {
+            return cursor.getString(COLUMN_DATA);
+        }
+
+        String payload = encoding == ENCODING_PAYLOAD_DEFLATE ? inflate(cursor.getBlob(COLUMN_DATA)) : cursor.getString(COLUMN_DATA);
+        if (payload == null || cursor.isNull(COLUMN_API_KEY)) {
+            IterableLogger.e(TAG, "Could not read data of task " + cursor.getString(COLUMN_TASK_ID));
+            return null;
+        }
+        // The payload is already serialized JSON, so the request is assembled without parsing it
+        return "{\"apiKey\":" + JSONObject.quote(cursor.getString(COLUMN_API_KEY)) +
+                ",\"resourcePath\":" + JSONObject.quote(name) +
+                ",\"requestType\":" + JSONObject.quote(cursor.getString(COLUMN_REQUEST_TYPE)) +
+                ",\"data\":" + payload + "}";
+    }
+
     /**
      * Gets ids of all the tasks in OfflineTask table
      * @return {@link ArrayList} of {@link String} ids for all the tasks in OfflineTask table
@@ -265,11 +559,79 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) {
             throw new IllegalStateException("Database is not ready");
         }
-        return DatabaseUtils.queryNumEntries(database, ITERABLE_TASK_TABLE_NAME);
+        long count = taskCount.get();
+        if (count < 0) {
+            synchronized (this) {
+                count = taskCount.get();
+                if (count < 0) {
+                    count = DatabaseUtils.queryNumEntries(database, ITERABLE_TASK_TABLE_NAME);
+                    taskCount.set(count);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Must be called while holding the lock on this object, together with the write that
+     * changed the number of tasks
+     */
+    private void adjustTaskCount(long delta) {
+        // Not loaded yet, it will be queried from the database when first needed
+        if (taskCount.get() >= 0) {
+            taskCount.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Returns the id of the oldest scheduled task with one of the given names
+     *
+     * @param names task names to consider, or null to consider all tasks
+     * @return id of the oldest matching task, or null if none found
+     */
+    @Nullable
+    synchronized String getOldestTaskId(@Nullable Collection<String> names) {
+        if (!isDatabaseReady()) {
+            return null;
+        }
+        List<String> conditions = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        if (names != null) {
+            if (names.isEmpty()) {
+                return null;
+            }
+            conditions.add(NAME + " in (" + getPlaceholders(names.size()) + ")");
+            selectionArgs.addAll(names);
+        }
+        if (!inFlightTaskIds.isEmpty()) {
+            // Tasks that are being sent are never dropped
+            conditions.add(TASK_ID + " not in (" + getPlaceholders(inFlightTaskIds.size()) + ")");
+            selectionArgs.addAll(inFlightTaskIds);
+        }
+        String query = "select " + TASK_ID + " from OfflineTask";
+        if (!conditions.isEmpty()) {
+            query += " where " + TextUtils.join(" and ", conditions);
+        }
+        Cursor cursor = database.rawQuery(query + " order by scheduled limit 1", selectionArgs.toArray(new String[0]));
+        String taskId = null;
+        if (cursor.moveToFirst()) {
+            taskId = cursor.getString(0);
+        }
+        cursor.close();
+        return taskId;
+    }
+
+    @NonNull
+    private static String getPlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < count; i++) {
+            placeholders.append(", ?");
+        }
+        return placeholders.toString();
     }
 
     /**
-     * Returns the next scheduled task for processing
+     * Returns the next scheduled task that is due for processing
      *
      * @return next scheduled {@link IterableTask}
      */
@@ -278,7 +640,7 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) {
             return null;
         }
-        Cursor cursor = database.rawQuery("select * from OfflineTask order by scheduled limit 1", null);
+        Cursor cursor = database.rawQuery(QUERY_NEXT_SCHEDULED_TASKS + 1, new String[]{String.valueOf(IterableUtil.currentTimeMillis())});
         IterableTask task = null;
         if (cursor.moveToFirst()) {
             task = createTaskFromCursor(cursor);
@@ -287,10 +649,32 @@ class IterableTaskStorage {
         return task;
     }
 
+    /**
+     * Returns up to {@code limit} next scheduled tasks that are due, in processing order
+     *
+     * @param limit maximum number of tasks to return
+     * @return {@link ArrayList} of the next scheduled {@link IterableTask}s
+     */
+    @NonNull
+    ArrayList<IterableTask> getNextScheduledTasks(int limit) {
+        ArrayList<IterableTask> tasks = new ArrayList<>();
+        if (!isDatabaseReady()) {
+            return tasks;
+        }
+        Cursor cursor = database.rawQuery(QUERY_NEXT_SCHEDULED_TASKS + limit, new String[]{String.valueOf(IterableUtil.currentTimeMillis())});
+        if (cursor.moveToFirst()) {
+            do {
+                tasks.add(createTaskFromCursor(cursor));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return tasks;
+    }
+
     /**
      * Returns the next scheduled task that does not require JWT authentication.
-     * Iterates tasks ordered by scheduledAt and returns the first one classified
-     * as unauthenticated by the given classification.
+     * Only tasks whose name is one of the unauthenticated endpoints of the given
+     * classification that are due are considered, ordered by scheduledAt.
      *
      * @param classification the endpoint classification to check against
      * @return next unauthenticated {@link IterableTask}, or null if none found
@@ -300,21 +684,46 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) {
             return null;
         }
-        Cursor cursor = database.rawQuery("select * from OfflineTask order by scheduled", null);
+        Set<String> unauthenticatedPaths = classification.getUnauthenticatedPaths();
+        if (unauthenticatedPaths.isEmpty()) {
+            return null;
+        }
+        List<String> selectionArgs = new ArrayList<>(unauthenticatedPaths);
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < selectionArgs.size(); i++) {
+            placeholders.append(", ?");
+        }
+        selectionArgs.add(String.valueOf(IterableUtil.currentTimeMillis()));
+        Cursor cursor = database.rawQuery("select " + TASK_COLUMNS + " from " + TASK_TABLES + " where " + NAME +
+                " in (" + placeholders + ") and " + SCHEDULED_AT + " <= ? order by " + SCHEDULED_AT + ", " +
+                CREATED_AT + " limit 1", selectionArgs.toArray(new String[0]));
         IterableTask task = null;
         if (cursor.moveToFirst()) {
-            do {
-                IterableTask candidate = createTaskFromCursor(cursor);
-                if (!candidate.requiresJwt(classification)) {
-                    task = candidate;
-                    break;
-                }
-            } while (cursor.moveToNext());
+            task = createTaskFromCursor(cursor);
         }
         cursor.close();
         return task;
     }
 
+    /**
+     * Returns the time at which the earliest task that is not due yet becomes due
+     *
+     * @return scheduled time in milliseconds, or 0 if no task is waiting for a retry
+     */
+    long getNextScheduledAt() {
+        if (!isDatabaseReady()) {
+            return 0;
+        }
+        Cursor cursor = database.rawQuery("select min(" + SCHEDULED_AT + ") from OfflineTask where " + SCHEDULED_AT + " > ?",
+                new String[]{String.valueOf(IterableUtil.currentTimeMillis())});
+        long scheduledAt = 0;
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            scheduledAt = cursor.getLong(0);
+        }
+        cursor.close();
+        return scheduledAt;
+    }
+
     /**
      * Deletes all the entries from the OfflineTask table.
      */
@@ -322,7 +731,13 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) {
             return;
         }
-        int numberOfRowsDeleted = database.delete(ITERABLE_TASK_TABLE_NAME, null, null);
+        int numberOfRowsDeleted;
+        synchronized (this) {
+            numberOfRowsDeleted = database.delete(ITERABLE_TASK_TABLE_NAME, null, null);
+            database.delete(ITERABLE_TASK_HEADER_TABLE_NAME, null, null);
+            headerIds.clear();
+            taskCount.set(0);
+        }
         IterableLogger.v(TAG, "Deleted " + numberOfRowsDeleted + " offline tasks");
     }
 
@@ -334,11 +749,52 @@ class IterableTaskStorage {
      */
     boolean deleteTask(String id) {
         if (!isDatabaseReady()) return false;
-        int numberOfEntriesDeleted = database.delete(ITERABLE_TASK_TABLE_NAME, TASK_ID + " =?", new String[]{id});
+        int numberOfEntriesDeleted;
+        synchronized (this) {
+            SQLiteStatement statement = getDeleteTaskStatement();
+            try {
+                statement.bindString(1, id);
+                numberOfEntriesDeleted = statement.executeUpdateDelete();
+            } finally {
+                statement.clearBindings();
+            }
+            adjustTaskCount(-numberOfEntriesDeleted);
+        }
         IterableLogger.v(TAG, "Deleted entry - " + numberOfEntriesDeleted);
         return true;
     }
 
+    /**
+     * Deletes multiple tasks from OfflineTask table in a single transaction
+     *
+     * @param ids for the tasks
+     * @return Whether or not the tasks were deleted
+     */
+    boolean deleteTasks(@NonNull List<String> ids) {
+        if (!isDatabaseReady()) return false;
+        int numberOfEntriesDeleted = 0;
+        synchronized (this) {
+            SQLiteStatement statement = getDeleteTaskStatement();
+            database.beginTransaction();
+            try {
+                for (String id : ids) {
+                    statement.bindString(1, id);
+                    numberOfEntriesDeleted += statement.executeUpdateDelete();
+                }
+                database.setTransactionSuccessful();
+                adjustTaskCount(-numberOfEntriesDeleted);
+            } catch (SQLException e) {
+                IterableLogger.e(TAG, "Failed to delete tasks", e);
+                return false;
+            } finally {
+                statement.clearBindings();
+                database.endTransaction();
+            }
+        }
+        IterableLogger.v(TAG, "Deleted entries - " + numberOfEntriesDeleted);
+        return true;
+    }
+
     /**
      * Updates Modified at date for a task in OfflineTask table
      *
@@ -456,6 +912,46 @@ class IterableTaskStorage {
         return updateTaskWithContentValues(id, contentValues);
     }
 
+    /**
+     * Records a failed attempt of a task and schedules its next attempt
+     *
+     * @param id              Unique id for the task
+     * @param attempts        number of times the task has been attempted
+     * @param lastAttemptedAt time of the last attempt in milliseconds
+     * @param scheduledAt     time of the next attempt in milliseconds
+     * @return Whether or not the task was updated
+     */
+    boolean updateRetrySchedule(String id, int attempts, long lastAttemptedAt, long scheduledAt) {
+        if (!isDatabaseReady()) return false;
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(ATTEMPTS, attempts);
+        contentValues.put(LAST_ATTEMPTED_AT, lastAttemptedAt);
+        contentValues.put(SCHEDULED_AT, scheduledAt);
+        return updateTaskWithContentValues(id, contentValues);
+    }
+
+    /**
+     * Postpones all tasks of the given endpoints that are scheduled before the given time, so that
+     * they are not sent ahead of an earlier task of these endpoints that is waiting for a retry
+     *
+     * @param names       endpoints of the tasks
+     * @param scheduledAt time in milliseconds until which the tasks are postponed
+     * @return Whether or not the database was available
+     */
+    boolean deferTasks(@NonNull Collection<String> names, long scheduledAt) {
+        if (!isDatabaseReady()) return false;
+        if (names.isEmpty()) return true;
+        String[] selectionArgs = new String[names.size() + 1];
+        names.toArray(selectionArgs);
+        selectionArgs[names.size()] = String.valueOf(scheduledAt);
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(SCHEDULED_AT, scheduledAt);
+        int numberOfEntriesUpdated = database.update(ITERABLE_TASK_TABLE_NAME, contentValues,
+                NAME + " in (" + getPlaceholders(names.size()) + ") and " + SCHEDULED_AT + " < ?", selectionArgs);
+        IterableLogger.v(TAG, "Deferred " + numberOfEntriesUpdated + " tasks of " + names);
+        return true;
+    }
+
     /**
      * Updates task with error data OfflineTask table
      *
@@ -481,11 +977,12 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) return false;
         ContentValues contentValues = new ContentValues();
         contentValues.put(DATA, data);
+        contentValues.put(ENCODING, ENCODING_REQUEST_JSON);
         return updateTaskWithContentValues(id, contentValues);
     }
 
     private boolean updateTaskWithContentValues(String id, ContentValues contentValues) {
-        return (0 > database.update(ITERABLE_TASK_TABLE_NAME, contentValues, TASK_ID + "=?", new String[]{id}));
+        return database.update(ITERABLE_TASK_TABLE_NAME, contentValues, TASK_ID + "=?", new String[]{id}) > 0;
     }
 
     private boolean isDatabaseReady() {
@@ -0,0 +1,43 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Default {@link IterableHttpTransport} backed by {@link HttpURLConnection}.
+ * Connections are only disconnected when they can't be reused: calling
+ * {@link HttpURLConnection#disconnect()} closes the socket, while closing a fully read response
+ * stream returns it to the platform keep-alive pool for the next request to the same host.
+ */
+class IterableUrlConnectionTransport implements IterableHttpTransport {
+    private static final IterableUrlConnectionTransport sharedInstance = new IterableUrlConnectionTransport();
+
+    /**
+     * Returns the transport that SDK requests should use: the transport provided in
+     * {@link IterableConfig}, or the default {@link HttpURLConnection} transport.
+     */
+    @NonNull
+    static IterableHttpTransport getTransport() {
+        IterableConfig config = IterableApi.getInstance().config;
+        if (config != null && config.httpTransport != null) {
+            return config.httpTransport;
+        }
+        return sharedInstance;
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection openConnection(@NonNull URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    @Override
+    public void releaseConnection(@NonNull HttpURLConnection connection, boolean reusable) {
+        if (!reusable) {
+            connection.disconnect();
+        }
+    }
+}
@@ -81,10 +81,31 @@ public class IterableUtil {
         return instance.readFile(file);
     }
 
+    /**
+     * Writes the file atomically: the content is written to a temporary file that replaces
+     * the file once it is fully written and synced to disk
+     */
     static boolean writeFile(File file, String content) {
         return instance.writeFile(file, content);
     }
 
+    /**
+     * Writes the file atomically along with a checksum of its content, which
+     * {@link #readFileWithChecksum(File)} verifies
+     */
+    static boolean writeFileWithChecksum(File file, String content) {
+        return instance.writeFileWithChecksum(file, content);
+    }
+
+    /**
+     * Reads a file written by {@link #writeFileWithChecksum(File, String)}
+     * @return file content, or null if the file can't be read or its checksum doesn't match
+     */
+    @Nullable
+    static String readFileWithChecksum(File file) {
+        return instance.readFileWithChecksum(file);
+    }
+
     static boolean isUrlOpenAllowed(@NonNull String url) {
         return instance.isUrlOpenAllowed(url);
     }
@@ -14,14 +14,22 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 class IterableUtilImpl {
     private static final String TAG = "IterableUtilImpl";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String CHECKSUM_PREFIX = "itbl-crc32:";
 
     public long currentTimeMillis() {
         return System.currentTimeMillis();
@@ -145,12 +153,14 @@ class IterableUtilImpl {
         BufferedReader bufferedReader = null;
         try {
             inputStream = new FileInputStream(file);
-            streamReader = new InputStreamReader(inputStream);
+            streamReader = new InputStreamReader(inputStream, UTF_8);
             bufferedReader = new BufferedReader(streamReader);
+            // Read the content as it is, line breaks matter in HTML (e.g. in inline scripts)
             StringBuilder stringBuilder = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                stringBuilder.append(line);
+            char[] buffer = new char[8192];
+            int charsRead;
+            while ((charsRead = bufferedReader.read(buffer)) != -1) {
+                stringBuilder.append(buffer, 0, charsRead);
             }
             return stringBuilder.toString();
         } catch (Exception e) {
@@ -164,18 +174,78 @@ class IterableUtilImpl {
     }
 
     boolean writeFile(File file, String content) {
+        // Write to a temporary file and rename it, so a crash during the write never leaves
+        // a truncated file behind: readers either see the old or the new content
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        FileOutputStream outputStream = null;
         try {
-            FileOutputStream outputStream = new FileOutputStream(file);
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream);
+            outputStream = new FileOutputStream(tempFile);
+            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream, UTF_8);
             outputStreamWriter.write(content);
+            outputStreamWriter.flush();
+            outputStream.getFD().sync();
             outputStreamWriter.close();
+            outputStream = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
             return true;
         } catch (Exception e) {
             IterableLogger.e(TAG, "Error while writing to file: " + file.toString(), e);
+            IOUtils.closeQuietly(outputStream);
+            tempFile.delete();
         }
         return false;
     }
 
+    boolean writeFileWithChecksum(File file, String content) {
+        return writeFile(file, CHECKSUM_PREFIX + getChecksum(content.getBytes(UTF_8)) + "\n" + content);
+    }
+
+    @Nullable
+    String readFileWithChecksum(File file) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            String fileContent = new String(outputStream.toByteArray(), UTF_8);
+
+            // Files written before checksums were added are returned as they are
+            if (!fileContent.startsWith(CHECKSUM_PREFIX)) {
+                return fileContent;
+            }
+            int headerEnd = fileContent.indexOf('\n');
+            if (headerEnd == -1) {
+                IterableLogger.e(TAG, "Checksum header is incomplete: " + file.toString());
+                return null;
+            }
+            String checksum = fileContent.substring(CHECKSUM_PREFIX.length(), headerEnd);
+            String content = fileContent.substring(headerEnd + 1);
+            if (!checksum.equals(getChecksum(content.getBytes(UTF_8)))) {
+                IterableLogger.e(TAG, "Checksum mismatch, file is corrupted: " + file.toString());
+                return null;
+            }
+            return content;
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Error while reading file: " + file.toString(), e);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        return null;
+    }
+
+    private static String getChecksum(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        return String.format(Locale.US, "%08x", crc32.getValue());
+    }
+
     static boolean isUrlOpenAllowed(@NonNull String url) {
         String urlProtocol = url.split("://")[0];
 
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.graphics.Color;
 import android.webkit.WebView;
 
+import androidx.annotation.Nullable;
+
 /**
  * The custom html webView
  */
@@ -16,8 +18,15 @@ class IterableWebView extends WebView {
     }
 
     void createWithHtml(IterableWebView.HTMLNotificationCallbacks notificationDialog, String html) {
+        createWithHtml(notificationDialog, html, null);
+    }
+
+    /**
+     * @param messageId in-app message ID, used to serve the message's prefetched assets
+     */
+    void createWithHtml(IterableWebView.HTMLNotificationCallbacks notificationDialog, String html, @Nullable String messageId) {
         // set up web view clients
-        IterableWebViewClient webViewClient = new IterableWebViewClient(notificationDialog);
+        IterableWebViewClient webViewClient = new IterableWebViewClient(notificationDialog, messageId);
         IterableWebChromeClient webChromeClient = new IterableWebChromeClient(notificationDialog);
 
         setWebViewClient(webViewClient);
@@ -1,13 +1,33 @@
 package com.iterable.iterableapi;
 
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 class IterableWebViewClient extends WebViewClient {
+    private static final String TAG = "IterableWebViewClient";
+
     IterableWebView.HTMLNotificationCallbacks inAppHTMLNotification;
+    @Nullable
+    private final String messageId;
 
     IterableWebViewClient(IterableWebView.HTMLNotificationCallbacks inAppHTMLNotification) {
+        this(inAppHTMLNotification, null);
+    }
+
+    IterableWebViewClient(IterableWebView.HTMLNotificationCallbacks inAppHTMLNotification, @Nullable String messageId) {
         this.inAppHTMLNotification = inAppHTMLNotification;
+        this.messageId = messageId;
     }
 
     @Override
@@ -21,4 +41,56 @@ class IterableWebViewClient extends WebViewClient {
         inAppHTMLNotification.setLoaded(true);
         view.postDelayed(inAppHTMLNotification::runResizeScript, 100);
     }
-}
\ No newline at end of file
+
+    @Nullable
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (messageId != null && "GET".equalsIgnoreCase(request.getMethod())) {
+            WebResourceResponse response = getPrefetchedAsset(view, request.getUrl().toString());
+            if (response != null) {
+                return response;
+            }
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+
+    // Serves assets that IterableInAppAssetCache downloaded when the message was stored
+    @Nullable
+    private WebResourceResponse getPrefetchedAsset(WebView view, String url) {
+        IterableInAppAssetCache assetCache = IterableInAppAssetCache.getInstance(view.getContext());
+        if (assetCache == null) {
+            return null;
+        }
+        File assetFile = assetCache.getAsset(messageId, url);
+        if (assetFile == null) {
+            return null;
+        }
+
+        String mimeType = null;
+        String encoding = null;
+        String contentType = assetCache.getContentType(assetFile);
+        if (contentType != null) {
+            String[] parts = contentType.split(";");
+            mimeType = parts[0].trim();
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.toLowerCase(Locale.US).startsWith("charset=")) {
+                    encoding = parameter.substring("charset=".length());
+                }
+            }
+        }
+
+        try {
+            // Assets such as fonts are loaded with CORS, so the original response's policy is replayed
+            Map<String, String> headers = new HashMap<>();
+            String allowedOrigin = assetCache.getAllowedOrigin(assetFile);
+            if (allowedOrigin != null) {
+                headers.put("Access-Control-Allow-Origin", allowedOrigin);
+            }
+            return new WebResourceResponse(mimeType, encoding, 200, "OK", headers, new FileInputStream(assetFile));
+        } catch (FileNotFoundException e) {
+            IterableLogger.w(TAG, "Prefetched in-app asset is no longer available", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps one spare {@link IterableWebView} that is created while the main thread is idle.
+ * Creating the first WebView of a process loads the WebView engine, which is the slowest part
+ * of showing an in-app message. With warm-up enabled, that cost is paid before a message is shown.
+ * The spare WebView is created with the application context and switched to the activity's
+ * context when it is used.
+ */
+class IterableWebViewPool {
+    private static final String TAG = "IterableWebViewPool";
+
+    @Nullable
+    private static IterableWebView spareWebView;
+    private static boolean warmUpScheduled = false;
+    private static boolean enabled = false;
+
+    private IterableWebViewPool() {
+    }
+
+    /**
+     * Enables the pool and creates the spare WebView the next time the main thread is idle
+     * @param context any context, the application context is used
+     */
+    static void warmUp(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                enabled = true;
+                scheduleWarmUp(applicationContext);
+            }
+        });
+    }
+
+    /**
+     * Returns the spare WebView if there is one, or creates a new WebView
+     * @param context context the WebView is displayed in
+     */
+    @MainThread
+    @NonNull
+    static IterableWebView obtain(@NonNull Context context) {
+        IterableWebView webView = spareWebView;
+        if (webView == null) {
+            return new IterableWebView(context);
+        }
+
+        spareWebView = null;
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(context);
+        IterableLogger.d(TAG, "Using a pre-created WebView");
+
+        // Have a spare WebView ready for the next message
+        scheduleWarmUp(context.getApplicationContext());
+        return webView;
+    }
+
+    @MainThread
+    private static void scheduleWarmUp(@NonNull final Context applicationContext) {
+        if (!enabled || warmUpScheduled || spareWebView != null) {
+            return;
+        }
+        warmUpScheduled = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                warmUpScheduled = false;
+                if (enabled && spareWebView == null) {
+                    try {
+                        spareWebView = new IterableWebView(new MutableContextWrapper(applicationContext));
+                        IterableLogger.d(TAG, "Pre-created a WebView");
+                    } catch (RuntimeException e) {
+                        // The WebView is created again when a message is shown, and errors are handled there
+                        IterableLogger.w(TAG, "Failed to pre-create a WebView", e);
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void reset() {
+        enabled = false;
+        if (spareWebView != null) {
+            spareWebView.destroy();
+            spareWebView = null;
+        }
+    }
+
+    @VisibleForTesting
+    static boolean hasSpareWebView() {
+        return spareWebView != null;
+    }
+}
@@ -1,11 +1,14 @@
 package com.iterable.iterableapi;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -46,7 +49,8 @@ class OfflineRequestProcessor implements RequestProcessor {
                 IterableActivityMonitor.getInstance(),
                 networkConnectivityManager,
                 healthMonitor,
-                classification);
+                classification,
+                createOfflineQueueWorkScheduler(context));
         taskScheduler = new TaskScheduler(taskStorage, taskRunner);
 
         // Register task runner as auth token ready listener for JWT auto-retry support
@@ -70,6 +74,20 @@ class OfflineRequestProcessor implements RequestProcessor {
         }
     }
 
+    @Nullable
+    private static IterableOfflineQueueWorkScheduler createOfflineQueueWorkScheduler(Context context) {
+        IterableConfig config = IterableApi.getInstance().config;
+        if (config == null || !config.enableBackgroundOfflineProcessing) {
+            return null;
+        }
+        try {
+            return new IterableOfflineQueueWorkScheduler(context);
+        } catch (Exception e) {
+            IterableLogger.w("OfflineRequestProcessor", "WorkManager is not available. Offline requests will only be sent in the foreground.");
+            return null;
+        }
+    }
+
     @VisibleForTesting
     OfflineRequestProcessor(TaskScheduler scheduler, IterableTaskRunner iterableTaskRunner, IterableTaskStorage storage, HealthMonitor mockHealthMonitor) {
         taskRunner = iterableTaskRunner;
@@ -81,24 +99,52 @@ class OfflineRequestProcessor implements RequestProcessor {
     @Override
     public void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.IterableActionHandler onCallback) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.GET, authToken, onCallback);
-        new IterableRequestTask().execute(request);
+        new IterableRequestTask().executeOnNetworkExecutor(request);
     }
 
     @Override
     public void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken,  @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.GET, authToken, onSuccess, onFailure);
-        new IterableRequestTask().execute(request);
+        new IterableRequestTask().executeOnNetworkExecutor(request);
+    }
+
+    @Override
+    public void processConditionalGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable String eTag, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.GET, authToken, onSuccess, onFailure);
+        request.setConditional(eTag);
+        new IterableRequestTask().executeOnNetworkExecutor(request);
     }
 
     @Override
     public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.POST, authToken, onSuccess, onFailure);
-        if (isRequestOfflineCompatible(request.resourcePath) && healthMonitor.canSchedule()) {
+        if (isRequestOfflineCompatible(request.resourcePath) && healthMonitor.canProcess()) {
+            IterableOfflineQueueOverflowPolicy policy = getOverflowPolicy();
+            QueueOverflowHandler overflowHandler = new QueueOverflowHandler(request.resourcePath, policy);
             request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
-            taskScheduler.scheduleTask(request, onSuccess, onFailure);
-        } else {
-            new IterableRequestTask().execute(request);
+            if (taskScheduler.scheduleTask(request, onSuccess, onFailure, overflowHandler)) {
+                return;
+            }
+            request.setProcessorType(IterableApiRequest.ProcessorType.ONLINE);
+            if (overflowHandler.queueFull && policy == IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY) {
+                // The queue is full of requests with the same or a higher priority
+                IterableLogger.d("OfflineRequestProcessor", "Offline queue is full. Dropped " + request.resourcePath + " request");
+                if (onFailure != null) {
+                    onFailure.onFailure("Offline queue is full", null);
+                }
+                return;
+            }
         }
+        new IterableRequestTask().executeOnNetworkExecutor(request);
+    }
+
+    /**
+     * Sends the queued requests while the app is in the background. Blocks until processing stops.
+     * @return true if there are no requests left that should be retried right away
+     */
+    @WorkerThread
+    boolean processTasksInBackground() {
+        return taskRunner.processTasksInBackground();
     }
 
     @Override
@@ -109,6 +155,41 @@ class OfflineRequestProcessor implements RequestProcessor {
     boolean isRequestOfflineCompatible(String baseUrl) {
         return offlineApiSet.contains(baseUrl);
     }
+
+    /**
+     * Drops a queued task according to the overflow policy when the offline queue is full.
+     * Runs while holding the storage lock, see {@link IterableTaskStorage.OverflowHandler}.
+     */
+    private class QueueOverflowHandler implements IterableTaskStorage.OverflowHandler {
+        private final String resourcePath;
+        private final IterableOfflineQueueOverflowPolicy policy;
+        boolean queueFull = false;
+
+        QueueOverflowHandler(String resourcePath, IterableOfflineQueueOverflowPolicy policy) {
+            this.resourcePath = resourcePath;
+            this.policy = policy;
+        }
+
+        @Nullable
+        @Override
+        public String dropTaskForOverflow() {
+            queueFull = true;
+            if (policy == IterableOfflineQueueOverflowPolicy.SEND_IMMEDIATELY) {
+                return null;
+            }
+            String droppedTaskId = healthMonitor.dropTaskForOverflow(resourcePath, policy);
+            if (droppedTaskId != null) {
+                taskScheduler.onTaskDropped(droppedTaskId);
+            }
+            return droppedTaskId;
+        }
+    }
+
+    @NonNull
+    private static IterableOfflineQueueOverflowPolicy getOverflowPolicy() {
+        IterableConfig config = IterableApi.getInstance().config;
+        return config != null ? config.offlineQueueOverflowPolicy : IterableOfflineQueueOverflowPolicy.SEND_IMMEDIATELY;
+    }
 }
 
 class TaskScheduler implements IterableTaskRunner.TaskCompletedListener {
@@ -124,22 +205,50 @@ class TaskScheduler implements IterableTaskRunner.TaskCompletedListener {
     }
 
     void scheduleTask(IterableApiRequest request, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        if (!scheduleTask(request, onSuccess, onFailure, null)) {
+            new IterableRequestTask().executeOnNetworkExecutor(request);
+        }
+    }
+
+    /**
+     * Stores the request as a task. When the offline queue is full, the overflow handler can drop
+     * a queued task to make room for it.
+     *
+     * @return false if the request was not stored; the caller decides whether to send it right away
+     */
+    boolean scheduleTask(IterableApiRequest request, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure,
+                         @Nullable IterableTaskStorage.OverflowHandler overflowHandler) {
         JSONObject serializedRequest = null;
         try {
             serializedRequest = request.toJSONObject();
         } catch (JSONException e) {
             IterableLogger.e("RequestProcessor", "Failed serializing the request for offline execution. Attempting to request the request now...");
-            new IterableRequestTask().execute(request);
-            return;
+            return false;
         }
 
-        String taskId = taskStorage.createTask(request.resourcePath, IterableTaskType.API, serializedRequest.toString());
+        String data = serializedRequest.toString();
+        String taskId = overflowHandler != null ?
+                taskStorage.createTask(request.resourcePath, IterableTaskType.API, data, overflowHandler) :
+                taskStorage.createTask(request.resourcePath, IterableTaskType.API, data);
         if (taskId == null) {
-            new IterableRequestTask().execute(request);
-            return;
+            return false;
         }
         successCallbackMap.put(taskId, onSuccess);
         failureCallbackMap.put(taskId, onFailure);
+        return true;
+    }
+
+    /**
+     * Notifies the failure handler of a task that was dropped from the queue without being sent
+     */
+    void onTaskDropped(final String taskId) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                onTaskCompleted(taskId, IterableTaskRunner.TaskResult.FAILURE,
+                        IterableApiResponse.failure(0, null, null, "Request was dropped because the offline queue is full"));
+            }
+        });
     }
 
     @MainThread
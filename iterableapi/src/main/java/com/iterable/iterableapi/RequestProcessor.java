@@ -12,6 +12,16 @@ public interface RequestProcessor {
 
     void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure);
 
+    /**
+     * Sends a conditional GET request. If the server returns 304 Not Modified for the given ETag,
+     * onSuccess receives an object with {@link IterableConstants#HTTP_STATUS_CODE} set to 304.
+     * Otherwise, the ETag of the response is added to the response object as {@link IterableConstants#KEY_ETAG}.
+     * Processors that don't support conditional requests send a regular GET request.
+     */
+    default void processConditionalGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable String eTag, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        processGetRequest(apiKey, resourcePath, json, authToken, onSuccess, onFailure);
+    }
+
     void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure);
     void onLogout(Context context);
 }
@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.HashSet;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -47,6 +48,19 @@ public class ApiEndpointClassificationTest {
         assertTrue(classification.requiresJwt(IterableConstants.ENDPOINT_MERGE_USER));
     }
 
+    @Test
+    public void testUnauthenticatedPathsMatchRequiresJwt() {
+        for (String path : classification.getUnauthenticatedPaths()) {
+            assertFalse(classification.requiresJwt(path));
+        }
+        assertFalse(classification.getUnauthenticatedPaths().contains(IterableConstants.ENDPOINT_TRACK));
+
+        classification.updateFromRemoteConfig(
+                new HashSet<>(Arrays.asList(IterableConstants.ENDPOINT_TRACK))
+        );
+        assertEquals(new HashSet<>(Arrays.asList(IterableConstants.ENDPOINT_TRACK)), classification.getUnauthenticatedPaths());
+    }
+
     @Test
     public void testIterableTaskRequiresJwtDelegation() {
         IterableTask authTask = new IterableTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}");
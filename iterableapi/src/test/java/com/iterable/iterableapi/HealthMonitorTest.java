@@ -6,9 +6,21 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(TestRunner.class)
@@ -51,4 +63,80 @@ public class HealthMonitorTest extends BaseTest {
         healthMonitor.onDBError();
         assertFalse(healthMonitor.canProcess());
     }
+
+    @Test
+    public void dropTaskForOverflowDropsOldestTask() throws Exception {
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+        when(mockTaskStorage.getOldestTaskId(isNull())).thenReturn("oldestTaskId");
+        when(mockTaskStorage.deleteTask("oldestTaskId")).thenReturn(true);
+        assertEquals("oldestTaskId", healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK, IterableOfflineQueueOverflowPolicy.DROP_OLDEST));
+        verify(mockTaskStorage).deleteTask("oldestTaskId");
+    }
+
+    @Test
+    public void dropTaskForOverflowDropsLowestPriorityTask() throws Exception {
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+        when(mockTaskStorage.getOldestTaskId(anyCollection())).thenReturn("deliveryTaskId");
+        when(mockTaskStorage.getOldestTaskId(isNull())).thenReturn("oldestTaskId");
+        when(mockTaskStorage.deleteTask("deliveryTaskId")).thenReturn(true);
+        assertEquals("deliveryTaskId", healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK, IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY));
+        verify(mockTaskStorage, never()).deleteTask("oldestTaskId");
+    }
+
+    @Test
+    public void dropTaskForOverflowKeepsHigherPriorityTasks() throws Exception {
+        // The queue is full of commerce tasks
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+        when(mockTaskStorage.getOldestTaskId(anyCollection())).thenReturn(null);
+        when(mockTaskStorage.getOldestTaskId(isNull())).thenReturn("purchaseTaskId");
+        assertNull(healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY, IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY));
+        assertNull(healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK, IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY));
+        verify(mockTaskStorage, never()).deleteTask(any(String.class));
+    }
+
+    @Test
+    public void dropTaskForOverflowSkipsTasksBeingSent() throws Exception {
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(getContext());
+        taskStorage.deleteAllTasks();
+        String sentTaskId = taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}");
+        String queuedTaskId = taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}");
+        assertTrue(taskStorage.markTaskInFlight(sentTaskId));
+
+        HealthMonitor healthMonitor = new HealthMonitor(taskStorage);
+        assertEquals(queuedTaskId, healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK, IterableOfflineQueueOverflowPolicy.DROP_OLDEST));
+        assertNull(healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK, IterableOfflineQueueOverflowPolicy.DROP_OLDEST));
+        assertFalse(taskStorage.markTaskInFlight(queuedTaskId));
+
+        taskStorage.clearTaskInFlight(sentTaskId);
+        taskStorage.deleteAllTasks();
+    }
+
+    @Test
+    public void createTaskMakesRoomWithOverflowHandlerWhenQueueIsFull() throws Exception {
+        IterableTaskStorage taskStorage = spy(IterableTaskStorage.sharedInstance(getContext()));
+        taskStorage.deleteAllTasks();
+        doReturn(IterableConstants.OFFLINE_TASKS_LIMIT).when(taskStorage).getNumberOfTasks();
+
+        assertNull(taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}", () -> null));
+        assertNotNull(taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}", () -> "droppedTaskId"));
+
+        taskStorage.deleteAllTasks();
+    }
+
+    @Test
+    public void dropTaskForOverflowCoalescesCartUpdates() throws Exception {
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+        when(mockTaskStorage.getOldestTaskId(Collections.singletonList(IterableConstants.ENDPOINT_UPDATE_CART))).thenReturn("cartTaskId");
+        when(mockTaskStorage.getOldestTaskId(isNull())).thenReturn("oldestTaskId");
+        when(mockTaskStorage.deleteTask("cartTaskId")).thenReturn(true);
+        assertEquals("cartTaskId", healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_UPDATE_CART, IterableOfflineQueueOverflowPolicy.COALESCE));
+    }
+
+    @Test
+    public void dropTaskForOverflowDoesNothingWhenSendingImmediately() throws Exception {
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+        when(mockTaskStorage.getOldestTaskId(isNull())).thenReturn("oldestTaskId");
+        assertNull(healthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK, IterableOfflineQueueOverflowPolicy.SEND_IMMEDIATELY));
+        verify(mockTaskStorage, never()).deleteTask(any(String.class));
+    }
 }
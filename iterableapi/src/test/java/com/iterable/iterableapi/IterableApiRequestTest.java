@@ -1,10 +1,13 @@
 package com.iterable.iterableapi;
 
+import static android.os.Looper.getMainLooper;
 import static com.iterable.iterableapi.IterableTestUtils.createIterableApi;
 
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 
+import android.util.Log;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -19,9 +22,17 @@ import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
 
 import junit.framework.Assert;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -30,6 +41,11 @@ import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
 
 @RunWith(TestRunner.class)
 public class IterableApiRequestTest {
@@ -346,4 +362,172 @@ public class IterableApiRequestTest {
         Assert.assertEquals("fake_key", request.getHeader(IterableConstants.HEADER_API_KEY));
         assertNotNull("sentAt header should be present", request.getHeader(IterableConstants.KEY_SENT_AT));
     }
+
+    @Test
+    public void testLargePostBodyIsGzippedWhenCompressionEnabled() throws Exception {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setEnableRequestCompression(true));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        JSONObject dataFields = new JSONObject();
+        for (int i = 0; i < 100; i++) {
+            dataFields.put("field" + i, "value" + i);
+        }
+        IterableApi.sharedInstance.track("testEvent", dataFields);
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        Assert.assertEquals(IterableConstants.ENCODING_GZIP, request.getHeader(IterableConstants.HEADER_CONTENT_ENCODING));
+        JSONObject requestJson = new JSONObject(Okio.buffer(new GzipSource(request.getBody())).readUtf8());
+        Assert.assertEquals("value99", requestJson.getJSONObject(IterableConstants.KEY_DATA_FIELDS).getString("field99"));
+    }
+
+    @Test
+    public void testSmallPostBodyIsNotGzipped() throws Exception {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setEnableRequestCompression(true));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        IterableApi.sharedInstance.track("testEvent");
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        Assert.assertNull(request.getHeader(IterableConstants.HEADER_CONTENT_ENCODING));
+        Assert.assertEquals("testEvent", new JSONObject(request.getBody().readUtf8()).getString(IterableConstants.KEY_EVENT_NAME));
+    }
+
+    @Test
+    public void testGzippedGetResponseIsDecompressed() throws Exception {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setEnableRequestCompression(true));
+        Buffer compressedBody = new Buffer();
+        BufferedSink gzipSink = Okio.buffer(new GzipSink(compressedBody));
+        gzipSink.writeUtf8("{\"inAppMessages\":[]}");
+        gzipSink.close();
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setHeader(IterableConstants.HEADER_CONTENT_ENCODING, IterableConstants.ENCODING_GZIP)
+                .setBody(compressedBody));
+
+        IterableApiResponse response = IterableRequestTask.executeApiRequest(new IterableApiRequest("fake_key",
+                IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, new JSONObject(), IterableApiRequest.GET, null, null, null));
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        Assert.assertEquals(IterableConstants.ENCODING_GZIP, request.getHeader(IterableConstants.HEADER_ACCEPT_ENCODING));
+        assertTrue(response.success);
+        assertTrue(response.responseJson.has(IterableConstants.ITERABLE_IN_APP_MESSAGE));
+    }
+
+    @Test
+    public void testConsecutiveRequestsReuseConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        IterableApiRequest request = new IterableApiRequest("fake_key", IterableConstants.ENDPOINT_TRACK,
+                new JSONObject(), IterableApiRequest.POST, null, null, null);
+        assertTrue(IterableRequestTask.executeApiRequest(request).success);
+        assertTrue(IterableRequestTask.executeApiRequest(request).success);
+
+        Assert.assertEquals(0, server.takeRequest(5, TimeUnit.SECONDS).getSequenceNumber());
+        Assert.assertEquals("Second request should be sent on the same connection",
+                1, server.takeRequest(5, TimeUnit.SECONDS).getSequenceNumber());
+    }
+
+    @Test
+    public void testCustomHttpTransportIsUsed() throws Exception {
+        final List<Boolean> releasedConnections = new ArrayList<>();
+        IterableTestUtils.createIterableApiNew(builder -> builder.setHttpTransport(new IterableHttpTransport() {
+            @NonNull
+            @Override
+            public HttpURLConnection openConnection(@NonNull URL url) throws IOException {
+                return (HttpURLConnection) url.openConnection();
+            }
+
+            @Override
+            public void releaseConnection(@NonNull HttpURLConnection connection, boolean reusable) {
+                releasedConnections.add(reusable);
+                connection.disconnect();
+            }
+        }));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        IterableApiResponse response = IterableRequestTask.executeApiRequest(new IterableApiRequest("fake_key",
+                IterableConstants.ENDPOINT_TRACK, new JSONObject(), IterableApiRequest.POST, null, null, null));
+
+        assertTrue(response.success);
+        Assert.assertEquals(1, releasedConnections.size());
+        assertTrue(releasedConnections.get(0));
+    }
+
+    @Test
+    public void testRequestBodyIsNotPrettyPrintedWhenVerboseLoggingIsDisabled() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        JSONObject requestJson = spy(new JSONObject());
+
+        IterableRequestTask.executeApiRequest(new IterableApiRequest("fake_key", IterableConstants.ENDPOINT_TRACK,
+                requestJson, IterableApiRequest.POST, null, null, null));
+
+        verify(requestJson, never()).toString(anyInt());
+    }
+
+    @Test
+    public void testRequestBodyIsPrettyPrintedWhenVerboseLoggingIsEnabled() throws Exception {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setLogLevel(Log.VERBOSE));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        JSONObject requestJson = spy(new JSONObject());
+
+        IterableRequestTask.executeApiRequest(new IterableApiRequest("fake_key", IterableConstants.ENDPOINT_TRACK,
+                requestJson, IterableApiRequest.POST, null, null, null));
+
+        verify(requestJson).toString(2);
+    }
+
+    @Test
+    public void testConditionalRequestReportsETagAndNotModified() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setHeader(IterableConstants.HEADER_ETAG, "\"v1\"").setBody("{\"inAppMessages\":[]}"));
+        server.enqueue(new MockResponse().setResponseCode(304));
+
+        IterableApiRequest request = new IterableApiRequest("fake_key", IterableConstants.ENDPOINT_GET_INAPP_MESSAGES,
+                new JSONObject(), IterableApiRequest.GET, null, null, null);
+        request.setConditional(null);
+        IterableApiResponse response = IterableRequestTask.executeApiRequest(request);
+        assertTrue(response.success);
+        assertEquals("\"v1\"", response.responseJson.getString(IterableConstants.KEY_ETAG));
+        Assert.assertNull(server.takeRequest(5, TimeUnit.SECONDS).getHeader(IterableConstants.HEADER_IF_NONE_MATCH));
+
+        request = new IterableApiRequest("fake_key", IterableConstants.ENDPOINT_GET_INAPP_MESSAGES,
+                new JSONObject(), IterableApiRequest.GET, null, null, null);
+        request.setConditional("\"v1\"");
+        response = IterableRequestTask.executeApiRequest(request);
+        assertTrue(response.success);
+        assertEquals(304, response.responseJson.getInt(IterableConstants.HTTP_STATUS_CODE));
+        assertEquals("\"v1\"", server.takeRequest(5, TimeUnit.SECONDS).getHeader(IterableConstants.HEADER_IF_NONE_MATCH));
+    }
+
+    @Test
+    public void testConditionalRequestKeepsCallbacksWhenRetriedWithNewAuthToken() throws Exception {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setNetworkExecutor(Runnable::run));
+        server.enqueue(new MockResponse().setResponseCode(200).setHeader(IterableConstants.HEADER_ETAG, "\"v2\"").setBody("{\"inAppMessages\":[]}"));
+        final List<JSONObject> responses = new ArrayList<>();
+
+        // The request that received a 401 because of the expired token
+        IterableApiRequest request = new IterableApiRequest("fake_key", IterableConstants.ENDPOINT_GET_INAPP_MESSAGES,
+                new JSONObject(), IterableApiRequest.GET, "expiredToken", new IterableHelper.SuccessHandler() {
+                    @Override
+                    public void onSuccess(@NonNull JSONObject data) {
+                        responses.add(data);
+                    }
+                }, new IterableHelper.FailureHandler() {
+                    @Override
+                    public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+                        Assert.fail("Retried request failed: " + reason);
+                    }
+                });
+        request.setConditional("\"v1\"");
+        IterableRequestTask.retryRequestWithNewAuthToken("newToken", request);
+        shadowOf(getMainLooper()).idle();
+
+        RecordedRequest retriedRequest = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals(IterableConstants.HEADER_SDK_AUTH_FORMAT + "newToken", retriedRequest.getHeader(IterableConstants.HEADER_SDK_AUTHORIZATION));
+        assertEquals("\"v1\"", retriedRequest.getHeader(IterableConstants.HEADER_IF_NONE_MATCH));
+        assertEquals(1, responses.size());
+        assertEquals("\"v2\"", responses.get(0).getString(IterableConstants.KEY_ETAG));
+    }
 }
@@ -0,0 +1,32 @@
+package com.iterable.iterableapi;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(TestRunner.class)
+public class IterableDatabaseManagerTest extends BaseTest {
+
+    @Test
+    public void testDowngradeDiscardsQueuedTasks() {
+        IterableDatabaseManager databaseManager = new IterableDatabaseManager(getContext());
+        SQLiteDatabase database = databaseManager.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(IterableTaskStorage.TASK_ID, "taskId");
+        values.put(IterableTaskStorage.NAME, IterableConstants.ENDPOINT_TRACK);
+        database.insertOrThrow(IterableTaskStorage.ITERABLE_TASK_TABLE_NAME, null, values);
+
+        databaseManager.onDowngrade(database, 4, 3);
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, IterableTaskStorage.ITERABLE_TASK_TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, IterableTaskStorage.ITERABLE_TASK_HEADER_TABLE_NAME));
+        databaseManager.close();
+    }
+}
@@ -19,9 +19,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 
 public class IterableEmbeddedManagerTest extends BaseTest {
     private MockWebServer server;
@@ -305,6 +307,33 @@ public class IterableEmbeddedManagerTest extends BaseTest {
         verify(mockHandler, never()).onEmbeddedMessagingSyncSucceeded();
     }
 
+    @Test
+    public void testUnchangedMessagesAreNotReprocessed() throws Exception {
+        dispatcher.enqueueResponse("/embedded-messaging/messages", new MockResponse()
+                .setHeader(IterableConstants.HEADER_ETAG, "\"v1\"")
+                .setBody(IterableTestUtils.getResourceString("embedded_payload_single_1.json")));
+        IterableEmbeddedManager embeddedManager = IterableApi.getInstance().getEmbeddedManager();
+        embeddedManager.syncMessages();
+        shadowOf(getMainLooper()).idle();
+        assertEquals(1, embeddedManager.getMessages(0L).size());
+
+        IterableEmbeddedUpdateHandler mockHandler = mock(IterableEmbeddedUpdateHandler.class);
+        embeddedManager.addUpdateListener(mockHandler);
+        dispatcher.enqueueResponse("/embedded-messaging/messages", new MockResponse().setResponseCode(304));
+        embeddedManager.syncMessages();
+        shadowOf(getMainLooper()).idle();
+
+        RecordedRequest lastRequest = null;
+        RecordedRequest request;
+        while ((request = server.takeRequest(1, TimeUnit.SECONDS)) != null) {
+            lastRequest = request;
+        }
+        assertEquals("\"v1\"", lastRequest.getHeader(IterableConstants.HEADER_IF_NONE_MATCH));
+        assertEquals(1, embeddedManager.getMessages(0L).size());
+        verify(mockHandler).onEmbeddedMessagingSyncSucceeded();
+        verify(mockHandler, never()).onMessagesUpdated();
+    }
+
     @Test
     public void testOnEmbeddedMessagingSyncFailed() throws Exception {
         // Enqueue 500 responses so auto-syncs also fail (avoiding mixed success/failure)
@@ -0,0 +1,179 @@
+package com.iterable.iterableapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class IterableInAppAssetCacheTest extends BaseTest {
+
+    private MockWebServer server;
+    private File rootFolder;
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        rootFolder = IterableUtil.getDirectory(IterableUtil.getSDKFilesDirectory(getContext()), "IterableInAppFileStorage");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        IterableInAppAssetCache.reset();
+        IterableTestUtils.resetIterableApi();
+    }
+
+    @Test
+    public void testFindAssetUrls() {
+        String html = "<html><head><link rel=\"stylesheet\" href=\"https://example.com/style.css\">" +
+                "<style>body { background: url('https://example.com/bg.png'); }</style></head>" +
+                "<body><img src=\"https://example.com/image.png?a=1&amp;b=2\"><img src=\"relative.png\">" +
+                "<a href=\"https://example.com/link\">Link</a></body></html>";
+
+        Set<String> assetUrls = IterableInAppAssetCache.findAssetUrls(html);
+
+        assertEquals(3, assetUrls.size());
+        assertTrue(assetUrls.contains("https://example.com/style.css"));
+        assertTrue(assetUrls.contains("https://example.com/bg.png"));
+        assertTrue(assetUrls.contains("https://example.com/image.png?a=1&b=2"));
+    }
+
+    @Test
+    public void testAssetsArePrefetched() throws Exception {
+        server.enqueue(new MockResponse().setBody("image data").setHeader("Content-Type", "image/png")
+                .setHeader("Access-Control-Allow-Origin", "https://example.com"));
+        String imageUrl = server.url("/image.png").toString();
+        createMessageFolder("message1");
+
+        IterableInAppAssetCache assetCache = new IterableInAppAssetCache(rootFolder, 1024 * 1024, directExecutor);
+        assetCache.prefetchAssets("message1", "<img src=\"" + imageUrl + "\">");
+
+        File assetFile = assetCache.getAsset("message1", imageUrl);
+        assertNotNull(assetFile);
+        assertEquals("image data", IterableUtil.readFile(assetFile));
+        assertEquals("image/png", assetCache.getContentType(assetFile));
+        assertEquals("https://example.com", assetCache.getAllowedOrigin(assetFile));
+        assertNull(assetCache.getAsset("message2", imageUrl));
+    }
+
+    @Test
+    public void testAllowedOriginIsNotStoredWhenServerDoesNotAllowCrossOriginAccess() throws Exception {
+        server.enqueue(new MockResponse().setBody("font data").setHeader("Content-Type", "font/woff2"));
+        String fontUrl = server.url("/font.woff2").toString();
+        createMessageFolder("message1");
+
+        IterableInAppAssetCache assetCache = new IterableInAppAssetCache(rootFolder, 1024 * 1024, directExecutor);
+        assetCache.prefetchAssets("message1", "<style>@font-face { src: url('" + fontUrl + "'); }</style>");
+
+        File assetFile = assetCache.getAsset("message1", fontUrl);
+        assertNotNull(assetFile);
+        assertNull(assetCache.getAllowedOrigin(assetFile));
+    }
+
+    @Test
+    public void testSharedInstanceIsKeptWhenDiskBudgetChanges() {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setInAppAssetCacheSize(1000));
+        IterableInAppAssetCache assetCache = IterableInAppAssetCache.getInstance(getContext());
+        assertNotNull(assetCache);
+
+        IterableTestUtils.createIterableApiNew(builder -> builder.setInAppAssetCacheSize(2000));
+
+        assertSame(assetCache, IterableInAppAssetCache.getInstance(getContext()));
+        assertEquals(2000, assetCache.getMaxSizeBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAssetsAreEvicted() throws Exception {
+        String imageUrl1 = server.url("/image1.png").toString();
+        String imageUrl2 = server.url("/image2.png").toString();
+        server.enqueue(new MockResponse().setBody(new Buffer().write(new byte[600])));
+        server.enqueue(new MockResponse().setBody(new Buffer().write(new byte[600])));
+        createMessageFolder("message1");
+        createMessageFolder("message2");
+
+        IterableInAppAssetCache assetCache = new IterableInAppAssetCache(rootFolder, 1000, directExecutor);
+        assetCache.prefetchAssets("message1", "<img src=\"" + imageUrl1 + "\">");
+        IterableUtil.writeFile(new File(new File(rootFolder, "message1"), "assets/.lastused"), "1000");
+        assetCache.prefetchAssets("message2", "<img src=\"" + imageUrl2 + "\">");
+
+        assertNull(assetCache.getAsset("message1", imageUrl1));
+        assertFalse(new File(new File(rootFolder, "message1"), "assets").exists());
+        assertNotNull(assetCache.getAsset("message2", imageUrl2));
+    }
+
+    @Test
+    public void testLastUseIsRecordedWhenAssetIsServed() throws Exception {
+        server.enqueue(new MockResponse().setBody("image data"));
+        String imageUrl = server.url("/image.png").toString();
+        createMessageFolder("message1");
+        File lastUsedFile = new File(new File(rootFolder, "message1"), "assets/.lastused");
+
+        doReturn(1000L).when(getIterableUtilSpy()).currentTimeMillis();
+        IterableInAppAssetCache assetCache = new IterableInAppAssetCache(rootFolder, 1024 * 1024, directExecutor);
+        assetCache.prefetchAssets("message1", "<img src=\"" + imageUrl + "\">");
+        assertEquals("1000", IterableUtil.readFile(lastUsedFile));
+
+        doReturn(2000L).when(getIterableUtilSpy()).currentTimeMillis();
+        assertNotNull(assetCache.getAsset("message1", imageUrl));
+        assertEquals("1000", IterableUtil.readFile(lastUsedFile));
+
+        doReturn(61000L).when(getIterableUtilSpy()).currentTimeMillis();
+        assertNotNull(assetCache.getAsset("message1", imageUrl));
+        assertEquals("61000", IterableUtil.readFile(lastUsedFile));
+    }
+
+    @Test
+    public void testAssetsAreDownloadedThroughConfiguredTransport() throws Exception {
+        final IterableHttpTransport transport = spy(new IterableUrlConnectionTransport());
+        IterableTestUtils.createIterableApiNew(builder -> builder.setHttpTransport(transport));
+        server.enqueue(new MockResponse().setBody("image data"));
+        String imageUrl = server.url("/image.png").toString();
+        createMessageFolder("message1");
+
+        IterableInAppAssetCache assetCache = new IterableInAppAssetCache(rootFolder, 1024 * 1024, directExecutor);
+        assetCache.prefetchAssets("message1", "<img src=\"" + imageUrl + "\">");
+
+        assertNotNull(assetCache.getAsset("message1", imageUrl));
+        verify(transport).openConnection(any(URL.class));
+        verify(transport).releaseConnection(any(), eq(true));
+    }
+
+    @Test
+    public void testAssetsAreNotDownloadedForRemovedMessage() {
+        IterableInAppAssetCache assetCache = new IterableInAppAssetCache(rootFolder, 1024 * 1024, directExecutor);
+        assetCache.prefetchAssets("removedMessage", "<img src=\"" + server.url("/image.png") + "\">");
+
+        assertEquals(0, server.getRequestCount());
+    }
+
+    private void createMessageFolder(String messageId) {
+        assertTrue(new File(rootFolder, messageId).mkdirs());
+    }
+}
@@ -1,5 +1,6 @@
 package com.iterable.iterableapi;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 
 import androidx.test.core.app.ApplicationProvider;
@@ -12,10 +13,18 @@ import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.robolectric.Shadows.shadowOf;
 
@@ -28,7 +37,7 @@ public class IterableInAppFileStorageTest {
 
     @Test
     public void testInAppPersistence() throws Exception {
-        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        IterableInAppFileStorage storage = createStorage();
         IterableInAppMessage testInAppMessage = InAppTestUtils.getTestInAppMessage();
 
         assertEquals(0, storage.getMessages().size());
@@ -39,7 +48,7 @@ public class IterableInAppFileStorageTest {
         testInAppMessage.setProcessed(true);
         testInAppMessage.setConsumed(true);
         runHandlerTasks(storage);
-        storage = new IterableInAppFileStorage(getContext());
+        storage = createStorage();
         assertEquals(1, storage.getMessages().size());
         JSONAssert.assertEquals(testInAppMessage.toJSONObject(), storage.getMessages().get(0).toJSONObject(), JSONCompareMode.STRICT);
         assertTrue(storage.getMessages().get(0).isProcessed());
@@ -47,25 +56,25 @@ public class IterableInAppFileStorageTest {
         storage.removeMessage(storage.getMessage(testInAppMessage.getMessageId()));
         runHandlerTasks(storage);
         assertEquals(0, storage.getMessages().size());
-        storage = new IterableInAppFileStorage(getContext());
+        storage = createStorage();
         assertEquals(0, storage.getMessages().size());
     }
 
     @Test
     public void testInAppImplicitSave() throws Exception {
         // Persist a message
-        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        IterableInAppFileStorage storage = createStorage();
         IterableInAppMessage testInAppMessage = InAppTestUtils.getTestInAppMessage();
         storage.addMessage(testInAppMessage);
         runHandlerTasks(storage);
         // Test that the message attributes are stored properly without an explicit save call
-        storage = new IterableInAppFileStorage(getContext());
+        storage = createStorage();
         assertEquals(1, storage.getMessages().size());
         testInAppMessage = storage.getMessages().get(0);
         testInAppMessage.setProcessed(true);
         testInAppMessage.setConsumed(true);
         runHandlerTasks(storage);
-        storage = new IterableInAppFileStorage(getContext());
+        storage = createStorage();
         assertEquals(1, storage.getMessages().size());
         testInAppMessage = storage.getMessages().get(0);
         JSONAssert.assertEquals(testInAppMessage.toJSONObject(), storage.getMessages().get(0).toJSONObject(), JSONCompareMode.STRICT);
@@ -75,7 +84,7 @@ public class IterableInAppFileStorageTest {
         storage.removeMessage(storage.getMessage(testInAppMessage.getMessageId()));
         runHandlerTasks(storage);
         assertEquals(0, storage.getMessages().size());
-        storage = new IterableInAppFileStorage(getContext());
+        storage = createStorage();
         assertEquals(0, storage.getMessages().size());
     }
 
@@ -89,7 +98,7 @@ public class IterableInAppFileStorageTest {
         Boolean fileWriteOperation = IterableUtil.writeFile(oldJsonStorageFile, IterableTestUtils.getResourceString("inapp_payload_multiple.json"));
         assertTrue(fileWriteOperation);
 
-        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        IterableInAppFileStorage storage = createStorage();
         List<IterableInAppMessage> messages = storage.getMessages();
         IterableInAppMessage message = messages.get(0);
         String messageID1 = message.getMessageId();
@@ -97,7 +106,7 @@ public class IterableInAppFileStorageTest {
 
         message.setProcessed(true);
         runHandlerTasks(storage);
-        storage = new IterableInAppFileStorage(getContext());
+        storage = createStorage();
         assertNotNull(storage.getHTML(messageID1));
         assertEquals(message.getContent().html, storage.getHTML(messageID1));
         assertNotNull(storage.getHTML(messageID2));
@@ -105,7 +114,7 @@ public class IterableInAppFileStorageTest {
 
     @Test
     public void loadMessagesWithNoJson() {
-        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        IterableInAppFileStorage storage = createStorage();
         assertEquals(0, storage.getMessages().size());
     }
 
@@ -115,16 +124,41 @@ public class IterableInAppFileStorageTest {
         File oldJsonStorageFile = new File(folder, "itbl_inapp.json");
         Boolean fileWriteResult = IterableUtil.writeFile(oldJsonStorageFile, IterableTestUtils.getResourceString("inapp_payload_multiple.json"));
         assertTrue(fileWriteResult);
-        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        IterableInAppFileStorage storage = createStorage();
         assertTrue(storage.getMessages().size() > 1);
 
-        // Simulate message update and check if new json file is created in SDK directory
-        storage.onInAppMessageChanged(storage.getMessages().get(0));
+        // Simulate message update and check that the messages are migrated to the SDK directory
+        IterableInAppMessage message = storage.getMessages().get(0);
+        storage.onInAppMessageChanged(message);
         runHandlerTasks(storage);
-        File sdkFilesDirectory = IterableUtil.getSDKFilesDirectory(getContext());
-        File inAppDirectory = IterableUtil.getDirectory(sdkFilesDirectory, "IterableInAppFileStorage");
-        File inAppJsonFile = new File(inAppDirectory, "itbl_inapp.json");
-        assertTrue(inAppJsonFile.exists());
+        File inAppDirectory = getInAppDirectory();
+        assertTrue(new File(inAppDirectory, "itbl_inapp_ids.json").exists());
+        assertTrue(new File(new File(inAppDirectory, message.getMessageId()), "metadata.json").exists());
+        assertFalse(oldJsonStorageFile.exists());
+    }
+
+    @Test
+    public void testOnlyChangedMessagesAreWritten() throws Exception {
+        IterableInAppFileStorage storage = createStorage();
+        IterableInAppMessage message1 = InAppTestUtils.getTestInboxInAppWithId("message1");
+        IterableInAppMessage message2 = InAppTestUtils.getTestInboxInAppWithId("message2");
+        storage.addMessage(message1);
+        storage.addMessage(message2);
+        runHandlerTasks(storage);
+
+        File metadataFile1 = new File(new File(getInAppDirectory(), "message1"), "metadata.json");
+        File metadataFile2 = new File(new File(getInAppDirectory(), "message2"), "metadata.json");
+        assertTrue(metadataFile1.delete());
+        assertTrue(metadataFile2.delete());
+
+        message1.setRead(true);
+        runHandlerTasks(storage);
+        assertTrue(metadataFile1.exists());
+        assertFalse(metadataFile2.exists());
+
+        storage = createStorage();
+        assertEquals(1, storage.getMessages().size());
+        assertTrue(storage.getMessage("message1").isRead());
     }
 
     @Test
@@ -135,10 +169,105 @@ public class IterableInAppFileStorageTest {
         Boolean fileWriteResult = IterableUtil.writeFile(inAppJsonFile, IterableTestUtils.getResourceString("inapp_payload_single.json"));
         assertTrue(fileWriteResult);
 
-        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        IterableInAppFileStorage storage = createStorage();
         assertEquals(1, storage.getMessages().size());
     }
 
+    @Test
+    public void testCorruptedMetadataIsDetected() throws Exception {
+        IterableInAppFileStorage storage = createStorage();
+        storage.addMessage(InAppTestUtils.getTestInboxInAppWithId("message1"));
+        storage.addMessage(InAppTestUtils.getTestInboxInAppWithId("message2"));
+        runHandlerTasks(storage);
+
+        File metadataFile = new File(new File(getInAppDirectory(), "message1"), "metadata.json");
+        String metadata = IterableUtil.readFileWithChecksum(metadataFile);
+        assertNotNull(metadata);
+        String corruptedFile = readRawFile(metadataFile).replace("message1", "messageX");
+        assertTrue(IterableUtil.writeFile(metadataFile, corruptedFile));
+        assertNull(IterableUtil.readFileWithChecksum(metadataFile));
+
+        storage = createStorage();
+        assertEquals(1, storage.getMessages().size());
+        assertNotNull(storage.getMessage("message2"));
+    }
+
+    @Test
+    public void testMessagesAreRecoveredWhenMessageIdsAreCorrupted() throws Exception {
+        IterableInAppFileStorage storage = createStorage();
+        storage.addMessage(InAppTestUtils.getTestInboxInAppWithId("message1"));
+        storage.addMessage(InAppTestUtils.getTestInboxInAppWithId("message2"));
+        runHandlerTasks(storage);
+
+        // Simulate a file truncated by a crash during a non-atomic write
+        File messageIdsFile = new File(getInAppDirectory(), "itbl_inapp_ids.json");
+        String messageIds = readRawFile(messageIdsFile);
+        assertTrue(IterableUtil.writeFile(messageIdsFile, messageIds.substring(0, messageIds.length() / 2)));
+
+        storage = createStorage();
+        assertEquals(2, storage.getMessages().size());
+        runHandlerTasks(storage);
+        assertNotNull(IterableUtil.readFileWithChecksum(messageIdsFile));
+        assertFalse(new File(getInAppDirectory(), "itbl_inapp_ids.json.tmp").exists());
+    }
+
+    @Test
+    public void testMessagesAddedBeforeLoadAreMergedWithStoredMessages() throws Exception {
+        IterableInAppFileStorage storage = createStorage();
+        IterableInAppMessage addedMessage2 = InAppTestUtils.getTestInboxInAppWithId("message2");
+        storage.addMessage(addedMessage2);
+        storage.addMessage(InAppTestUtils.getTestInboxInAppWithId("message3"));
+
+        // Stored messages that finish loading after messages were added don't replace them
+        storage.mergeStoredMessages(Arrays.asList(InAppTestUtils.getTestInboxInAppWithId("message1"),
+                InAppTestUtils.getTestInboxInAppWithId("message2")));
+
+        List<IterableInAppMessage> messages = storage.getMessages();
+        assertEquals(3, messages.size());
+        assertEquals("message1", messages.get(0).getMessageId());
+        assertSame(addedMessage2, messages.get(1));
+        assertEquals("message3", messages.get(2).getMessageId());
+        assertEquals(3, storage.getInboxMessages().size());
+        assertEquals("message1", storage.getInboxMessages().get(0).getMessageId());
+    }
+
+    @Test
+    public void testStoredHTMLIsNotKeptOnMessage() throws Exception {
+        IterableInAppFileStorage storage = createStorage();
+        IterableInAppMessage message = InAppTestUtils.getTestInAppMessage();
+        String html = message.getContent().html;
+        IterableInAppMessage.Content contentBeforeSave = message.getContent();
+        storage.addMessage(message);
+        runHandlerTasks(storage);
+
+        // Content returned before the save keeps its HTML, later calls load it from the storage
+        assertEquals(html, contentBeforeSave.html);
+        assertNotSame(contentBeforeSave, message.getContent());
+        assertEquals(html, message.getContent().html);
+
+        // HTML evicted from memory is read from disk again
+        storage.htmlCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, storage.htmlCache.size());
+        assertEquals(html, message.getContent().html);
+        assertTrue(storage.htmlCache.size() > 0);
+    }
+
+    private String readRawFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    private File getInAppDirectory() {
+        File sdkFilesDirectory = IterableUtil.getSDKFilesDirectory(getContext());
+        return IterableUtil.getDirectory(sdkFilesDirectory, "IterableInAppFileStorage");
+    }
+
+    // The main thread doesn't wait for the stored messages to load, so tests wait for it here
+    private IterableInAppFileStorage createStorage() {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        shadowOf(storage.fileOperationHandler.getLooper()).idle();
+        return storage;
+    }
+
     private void runHandlerTasks(IterableInAppFileStorage storage) throws InterruptedException {
         shadowOf(storage.fileOperationHandler.getLooper()).runToEndOfTasks();
     }
@@ -1,5 +1,6 @@
 package com.iterable.iterableapi;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +12,7 @@ import org.mockito.stubbing.Answer;
 
 import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -42,11 +44,11 @@ public class IterableInAppManagerSyncTest extends BaseTest {
         doAnswer(new Answer() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                IterableHelper.IterableActionHandler handler = invocation.getArgument(1);
-                handler.execute(IterableTestUtils.getResourceString("inapp_payload_single.json"));
+                IterableHelper.SuccessHandler handler = invocation.getArgument(2);
+                handler.onSuccess(new JSONObject(IterableTestUtils.getResourceString("inapp_payload_single.json")));
                 return null;
             }
-        }).when(iterableApiMock).getInAppMessages(any(Integer.class), any(IterableHelper.IterableActionHandler.class));
+        }).when(iterableApiMock).getInAppMessages(any(Integer.class), nullable(String.class), any(IterableHelper.SuccessHandler.class), any(IterableHelper.FailureHandler.class));
     }
 
     @After
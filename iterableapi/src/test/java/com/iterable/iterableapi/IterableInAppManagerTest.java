@@ -35,6 +35,7 @@ import okhttp3.mockwebserver.MockWebServer;
 import static android.os.Looper.getMainLooper;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -159,6 +160,34 @@ public class IterableInAppManagerTest extends BaseTest {
         assertEquals("Q19mD2NlQUnxnmSGuQu9ujzkKR6c12TogeaGA29", inAppManager.getMessages().get(0).getMessageId());
     }
 
+    @Test
+    public void testSyncInAppUpdatesStorageIncrementally() throws Exception {
+        String payload = IterableTestUtils.getResourceString("inapp_payload_single.json");
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(payload));
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        IterableInAppMessage storedMessage = inAppManager.getMessageById("7kx2MmoGdCpuZao9fDueuQoXVAZuDaVV");
+
+        // The stored message is now read on the server, and a new message was added
+        JSONObject updatedPayload = new JSONObject(payload);
+        JSONArray messagesJson = updatedPayload.getJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE);
+        messagesJson.getJSONObject(0).put(IterableConstants.ITERABLE_IN_APP_READ, true);
+        JSONObject newMessageJson = new JSONObject(messagesJson.getJSONObject(0).toString());
+        newMessageJson.put(IterableConstants.KEY_MESSAGE_ID, "newMessageId");
+        newMessageJson.put(IterableConstants.ITERABLE_IN_APP_READ, false);
+        messagesJson.put(newMessageJson);
+
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(updatedPayload.toString()));
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+
+        assertEquals(2, inAppManager.getMessages().size());
+        assertSame(storedMessage, inAppManager.getMessageById("7kx2MmoGdCpuZao9fDueuQoXVAZuDaVV"));
+        assertTrue(storedMessage.isRead());
+        assertFalse(inAppManager.getMessageById("newMessageId").isRead());
+    }
+
     @Test
     public void testReset() throws Exception {
         dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(IterableTestUtils.getResourceString("inapp_payload_single.json")));
@@ -207,6 +236,45 @@ public class IterableInAppManagerTest extends BaseTest {
         assertEquals(0, inAppManager.getMessages().size());
     }
 
+    @Test
+    public void testExpiredMessagesAreRemovedWhenTheyExpire() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        JSONObject payload = new JSONObject(IterableTestUtils.getResourceString("inapp_payload_single.json"));
+        JSONArray jsonArray = payload.optJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE);
+        JSONObject jsonMessage = jsonArray.getJSONObject(0).put(IterableConstants.ITERABLE_IN_APP_EXPIRES_AT, currentTime + 60 * 1000);
+        jsonArray.put(new JSONObject(jsonMessage.toString()).put(IterableConstants.KEY_MESSAGE_ID, "expiredMessage").put(IterableConstants.ITERABLE_IN_APP_EXPIRES_AT, currentTime - 60 * 1000));
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(payload.toString()));
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        String messageId = jsonMessage.getString(IterableConstants.KEY_MESSAGE_ID);
+        assertNotNull(inAppManager.getMessageById(messageId));
+        assertNull(inAppManager.getMessageById("expiredMessage"));
+
+        // The message is removed from the storage without being queried
+        doReturn(currentTime + 61 * 1000).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        shadowOf(getMainLooper()).idleFor(61, TimeUnit.SECONDS);
+        assertNull(inAppManager.getMessageById(messageId));
+    }
+
+    @Test
+    public void testResetCancelsExpiryTimer() throws Exception {
+        JSONObject payload = new JSONObject(IterableTestUtils.getResourceString("inapp_payload_single.json"));
+        payload.optJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE).getJSONObject(0)
+                .put(IterableConstants.ITERABLE_IN_APP_EXPIRES_AT, System.currentTimeMillis() + 60 * 1000);
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(payload.toString()));
+
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        assertTrue(inAppManager.expiryHandler.hasCallbacks(inAppManager.expiryRunnable));
+
+        inAppManager.reset();
+        assertFalse(inAppManager.expiryHandler.hasCallbacks(inAppManager.expiryRunnable));
+    }
+
     @Test
     public void testNotProcessingNeverTriggerType() throws Exception {
         // Test on a message with trigger = immediate
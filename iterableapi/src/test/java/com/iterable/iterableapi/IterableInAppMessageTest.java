@@ -144,8 +144,9 @@ public class IterableInAppMessageTest {
                 IterableInAppStorage storageInterface = mock(IterableInAppStorage.class);
                 IterableInAppMessage message = IterableInAppMessage.fromJSONObject(messageJsonHTMLStripped, storageInterface);
                 when(storageInterface.getHTML(message.getMessageId())).thenReturn(storageInterfaceHTML);
-                assertNotNull(message.getContent().html);
-                assertEquals(storageInterfaceHTML, message.getContent().html);
+                String html = message.getContent().html;
+                assertNotNull(html);
+                assertEquals(storageInterfaceHTML, html);
                 verify(storageInterface, times(1)).getHTML(message.getMessageId());
             }
         }
@@ -27,6 +27,7 @@ import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
@@ -87,6 +88,30 @@ public class IterableInboxTest extends BaseTest {
         assertEquals("message4", inboxMessages.get(1).getMessageId());
     }
 
+    @Test
+    public void testInboxIndexUpdatesOnReadAndExpiry() throws Exception {
+        JSONObject payload = new JSONObject(IterableTestUtils.getResourceString("inapp_payload_inbox_multiple.json"));
+        long expiresAt = 2000000000000L;
+        payload.getJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE).getJSONObject(1).put(IterableConstants.ITERABLE_IN_APP_EXPIRES_AT, expiresAt);
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(payload.toString()));
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        assertEquals(2, inAppManager.getInboxMessages().size());
+        assertEquals(1, inAppManager.getUnreadInboxMessagesCount());
+
+        inAppManager.setRead(inAppManager.getMessageById("message2"), true);
+        assertEquals(0, inAppManager.getUnreadInboxMessagesCount());
+        inAppManager.setRead(inAppManager.getMessageById("message2"), false);
+        assertEquals(1, inAppManager.getUnreadInboxMessagesCount());
+
+        doReturn(expiresAt + 1).when(getIterableUtilSpy()).currentTimeMillis();
+        List<IterableInAppMessage> inboxMessages = inAppManager.getInboxMessages();
+        assertEquals(1, inboxMessages.size());
+        assertEquals("message4", inboxMessages.get(0).getMessageId());
+        assertEquals(0, inAppManager.getUnreadInboxMessagesCount());
+    }
+
     @Test
     public void testRemoveMessageSuccessCallbackOnSuccessfulResponse() throws Exception {
         final CountDownLatch signal = new CountDownLatch(1);
@@ -231,6 +256,21 @@ public class IterableInboxTest extends BaseTest {
         assertEquals(1, inAppManager.getUnreadInboxMessagesCount());
     }
 
+    @Test
+    public void testListenersAreNotifiedWhenNoStoredMessagesAreLoaded() throws Exception {
+        IterableInAppManager.Listener listenerMock = mock(IterableInAppManager.Listener.class);
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+
+        IterableInAppManager inAppManager = new IterableInAppManager(mock(IterableApi.class), new IterableDefaultInAppHandler(), 30.0,
+                storage, IterableActivityMonitor.getInstance(), mock(IterableInAppDisplayer.class));
+        inAppManager.addListener(listenerMock);
+        shadowOf(storage.fileOperationHandler.getLooper()).idle();
+        shadowOf(getMainLooper()).idle();
+
+        verify(listenerMock).onInboxUpdated();
+        assertEquals(0, inAppManager.getInboxMessages().size());
+    }
+
     @Test
     public void testInboxNewMessagesCallback() throws Exception {
         IterableInAppManager.Listener listenerMock = mock(IterableInAppManager.Listener.class);
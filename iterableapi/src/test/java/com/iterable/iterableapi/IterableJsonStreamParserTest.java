@@ -0,0 +1,55 @@
+package com.iterable.iterableapi;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IterableJsonStreamParserTest extends BaseTest {
+
+    @Test
+    public void testParsesSameObjectAsJSONObject() throws Exception {
+        String payload = IterableTestUtils.getResourceString("inapp_payload_multiple.json");
+
+        JSONObject streamed = IterableJsonStreamParser.readObject(stream(payload));
+
+        assertEquals(new JSONObject(payload).toString(), streamed.toString());
+    }
+
+    @Test
+    public void testNumberTypes() throws Exception {
+        JSONObject object = IterableJsonStreamParser.readObject(stream("{\"int\":1,\"long\":12345678901,\"double\":1.5,\"flag\":true,\"empty\":null}"));
+
+        assertTrue(object.get("int") instanceof Integer);
+        assertTrue(object.get("long") instanceof Long);
+        assertEquals(1.5, object.getDouble("double"), 0);
+        assertTrue(object.getBoolean("flag"));
+        assertTrue(object.isNull("empty"));
+    }
+
+    @Test
+    public void testEmptyBodyReturnsNull() throws Exception {
+        assertNull(IterableJsonStreamParser.readObject(stream("")));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testArrayIsRejected() throws Exception {
+        IterableJsonStreamParser.readObject(stream("[1, 2]"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testMalformedJsonIsRejected() throws Exception {
+        IterableJsonStreamParser.readObject(stream("{\"inAppMessages\": [}"));
+    }
+
+    private static InputStream stream(String payload) {
+        return new ByteArrayInputStream(payload.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,57 @@
+package com.iterable.iterableapi;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IterableLoggerTest extends BaseTest {
+
+    @After
+    public void tearDown() {
+        IterableTestUtils.resetIterableApi();
+    }
+
+    @Test
+    public void testLogLevelFollowsConfig() {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setLogLevel(Log.DEBUG));
+
+        assertTrue(IterableLogger.isLoggable(Log.ERROR));
+        assertTrue(IterableLogger.isLoggable(Log.DEBUG));
+        assertFalse(IterableLogger.isLoggable(Log.VERBOSE));
+    }
+
+    @Test
+    public void testDebugModeEnablesVerboseLogging() {
+        IterableTestUtils.createIterableApiNew();
+        assertFalse(IterableLogger.isLoggable(Log.VERBOSE));
+
+        IterableApi.getInstance().setDebugMode(true);
+        assertTrue(IterableLogger.isLoggable(Log.VERBOSE));
+
+        IterableApi.getInstance().setDebugMode(false);
+        assertFalse(IterableLogger.isLoggable(Log.VERBOSE));
+    }
+
+    @Test
+    public void testNewInstanceResetsLogLevel() {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setLogLevel(Log.VERBOSE));
+        assertTrue(IterableLogger.isLoggable(Log.VERBOSE));
+
+        IterableApi.sharedInstance = new IterableApi();
+
+        assertFalse(IterableLogger.isLoggable(Log.WARN));
+        assertTrue(IterableLogger.isLoggable(Log.ERROR));
+    }
+
+    @Test
+    public void testInvalidFormatStringDoesNotThrow() {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setLogLevel(Log.VERBOSE));
+
+        IterableLogger.v("IterableLoggerTest", "%d messages", "not a number");
+        IterableLogger.printInfo();
+    }
+}
@@ -0,0 +1,64 @@
+package com.iterable.iterableapi;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class IterableNetworkExecutorTest extends BaseTest {
+
+    @After
+    public void tearDown() {
+        IterableNetworkExecutor.reset();
+        IterableTestUtils.resetIterableApi();
+    }
+
+    @Test
+    public void testRequestsRunOnNamedSdkThreads() throws Exception {
+        final AtomicReference<String> threadName = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        IterableNetworkExecutor.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                threadName.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(threadName.get().startsWith("IterableNetwork-"));
+        assertTrue(IterableNetworkExecutor.isSdkExecutor(IterableNetworkExecutor.getExecutor()));
+    }
+
+    @Test
+    public void testExecutorFromConfigIsUsed() {
+        final Executor customExecutor = mock(Executor.class);
+        IterableTestUtils.createIterableApiNew(builder -> builder.setNetworkExecutor(customExecutor));
+
+        assertSame(customExecutor, IterableNetworkExecutor.getExecutor());
+    }
+
+    @Test
+    public void testRequestsOnCustomExecutorAreNotCountedAsSdkRequests() {
+        final Executor customExecutor = mock(Executor.class);
+        IterableTestUtils.createIterableApiNew(builder -> builder.setNetworkExecutor(customExecutor));
+
+        IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
+        new IterableRequestTask().executeOnNetworkExecutor(request);
+
+        verify(customExecutor).execute(any(Runnable.class));
+        assertFalse(IterableNetworkExecutor.isSdkExecutor(customExecutor));
+    }
+}
@@ -0,0 +1,73 @@
+package com.iterable.iterableapi;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class IterableOfflineQueueWorkSchedulerTest extends BaseTest {
+
+    private WorkManager mockWorkManager;
+    private IterableOfflineQueueWorkScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        mockWorkManager = mock(WorkManager.class);
+        scheduler = new IterableOfflineQueueWorkScheduler(mockWorkManager);
+    }
+
+    @Test
+    public void testScheduleEnqueuesUniqueConstrainedWork() {
+        scheduler.scheduleOfflineQueueWork();
+
+        ArgumentCaptor<OneTimeWorkRequest> captor = ArgumentCaptor.forClass(OneTimeWorkRequest.class);
+        verify(mockWorkManager).enqueueUniqueWork(eq(IterableOfflineQueueWorkScheduler.WORK_NAME), eq(ExistingWorkPolicy.KEEP), captor.capture());
+
+        OneTimeWorkRequest workRequest = captor.getValue();
+        assertEquals(IterableOfflineQueueWorker.class.getName(), workRequest.getWorkSpec().workerClassName);
+        Constraints constraints = workRequest.getWorkSpec().constraints;
+        assertEquals(NetworkType.CONNECTED, constraints.getRequiredNetworkType());
+        assertTrue(constraints.requiresBatteryNotLow());
+    }
+
+    @Test
+    public void testScheduleWithDelayAppendsDelayedWork() {
+        scheduler.scheduleOfflineQueueWork(60000);
+
+        ArgumentCaptor<OneTimeWorkRequest> captor = ArgumentCaptor.forClass(OneTimeWorkRequest.class);
+        verify(mockWorkManager).enqueueUniqueWork(eq(IterableOfflineQueueWorkScheduler.WORK_NAME), eq(ExistingWorkPolicy.APPEND_OR_REPLACE), captor.capture());
+
+        OneTimeWorkRequest workRequest = captor.getValue();
+        assertEquals(60000, workRequest.getWorkSpec().initialDelay);
+        assertEquals(NetworkType.CONNECTED, workRequest.getWorkSpec().constraints.getRequiredNetworkType());
+    }
+
+    @Test
+    public void testScheduleHandlesWorkManagerException() {
+        doThrow(new IllegalStateException("WorkManager not initialized"))
+                .when(mockWorkManager).enqueueUniqueWork(anyString(), any(ExistingWorkPolicy.class), any(OneTimeWorkRequest.class));
+
+        scheduler.scheduleOfflineQueueWork();
+    }
+
+    @Test
+    public void testCancelCancelsUniqueWork() {
+        scheduler.cancelOfflineQueueWork();
+
+        verify(mockWorkManager).cancelUniqueWork(IterableOfflineQueueWorkScheduler.WORK_NAME);
+    }
+}
@@ -0,0 +1,118 @@
+package com.iterable.iterableapi;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class IterableRequestCoalescerTest extends BaseTest {
+
+    private IterableRequestCoalescer coalescer;
+    private List<IterableHelper.SuccessHandler> sentSuccessHandlers;
+    private List<IterableHelper.FailureHandler> sentFailureHandlers;
+    private IterableRequestCoalescer.Request request;
+
+    @Before
+    public void setUp() {
+        coalescer = new IterableRequestCoalescer();
+        sentSuccessHandlers = new ArrayList<>();
+        sentFailureHandlers = new ArrayList<>();
+        request = (onSuccess, onFailure) -> {
+            sentSuccessHandlers.add(onSuccess);
+            sentFailureHandlers.add(onFailure);
+        };
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneCall() throws Exception {
+        IterableHelper.SuccessHandler firstHandler = mock(IterableHelper.SuccessHandler.class);
+        IterableHelper.SuccessHandler secondHandler = mock(IterableHelper.SuccessHandler.class);
+
+        coalescer.send("inApp/getMessages", firstHandler, null, request);
+        coalescer.send("inApp/getMessages", secondHandler, null, request);
+        assertEquals(1, sentSuccessHandlers.size());
+
+        JSONObject response = new JSONObject("{\"inAppMessages\":[]}");
+        sentSuccessHandlers.get(0).onSuccess(response);
+
+        verify(firstHandler).onSuccess(response);
+        verify(secondHandler).onSuccess(response);
+    }
+
+    @Test
+    public void testFailureIsDeliveredToAllCallers() {
+        IterableHelper.FailureHandler firstHandler = mock(IterableHelper.FailureHandler.class);
+        IterableHelper.FailureHandler secondHandler = mock(IterableHelper.FailureHandler.class);
+
+        coalescer.send("embedded/messages", null, firstHandler, request);
+        coalescer.send("embedded/messages", null, secondHandler, request);
+        sentFailureHandlers.get(0).onFailure("Internal Server Error", null);
+
+        verify(firstHandler).onFailure("Internal Server Error", null);
+        verify(secondHandler).onFailure("Internal Server Error", null);
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotCoalesced() {
+        coalescer.send("inApp/getMessages?count=10", null, null, request);
+        coalescer.send("inApp/getMessages?count=100", null, null, request);
+
+        assertEquals(2, sentSuccessHandlers.size());
+    }
+
+    @Test
+    public void testRequestIsSentAgainAfterCompletion() throws Exception {
+        IterableHelper.SuccessHandler handler = mock(IterableHelper.SuccessHandler.class);
+
+        coalescer.send("inApp/getMessages", handler, null, request);
+        sentSuccessHandlers.get(0).onSuccess(new JSONObject());
+        coalescer.send("inApp/getMessages", handler, null, request);
+
+        assertEquals(2, sentSuccessHandlers.size());
+    }
+
+    @Test
+    public void testRequestIsNotJoinedAfterResponseArrives() {
+        coalescer.send("inApp/getMessages", null, null, request);
+        // Response received on the network thread, callbacks not delivered yet
+        ((IterableRequestCoalescer.ResponseListener) sentSuccessHandlers.get(0)).onResponseReceived();
+        coalescer.send("inApp/getMessages", null, null, request);
+
+        assertEquals(2, sentSuccessHandlers.size());
+    }
+
+    @Test
+    public void testLegacyRequestsAreNotSharedWithJsonRequests() {
+        final List<IterableHelper.IterableActionHandler> sentCallbacks = new ArrayList<>();
+        IterableHelper.IterableActionHandler firstCallback = mock(IterableHelper.IterableActionHandler.class);
+        IterableHelper.IterableActionHandler secondCallback = mock(IterableHelper.IterableActionHandler.class);
+
+        coalescer.send("inApp/getMessages", null, null, request);
+        coalescer.send("inApp/getMessages", firstCallback, sentCallbacks::add);
+        coalescer.send("inApp/getMessages", secondCallback, sentCallbacks::add);
+        assertEquals(1, sentSuccessHandlers.size());
+        assertEquals(1, sentCallbacks.size());
+
+        sentCallbacks.get(0).execute("{}");
+        verify(firstCallback).execute("{}");
+        verify(secondCallback).execute("{}");
+    }
+
+    @Test
+    public void testStaleInFlightRequestIsNotJoined() {
+        doReturn(0L).when(getIterableUtilSpy()).currentTimeMillis();
+        coalescer.send("inApp/getMessages", null, null, request);
+
+        doReturn(IterableRequestCoalescer.IN_FLIGHT_TIMEOUT_MS + 1).when(getIterableUtilSpy()).currentTimeMillis();
+        coalescer.send("inApp/getMessages", null, null, request);
+
+        assertEquals(2, sentSuccessHandlers.size());
+    }
+}
@@ -4,14 +4,21 @@ import android.content.Context;
 
 import androidx.test.core.app.ApplicationProvider;
 
+import com.iterable.iterableapi.unit.PathBasedQueueDispatcher;
 import com.iterable.iterableapi.unit.TestRunner;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.mockwebserver.MockResponse;
@@ -23,8 +30,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doReturn;
@@ -51,6 +62,7 @@ public class IterableTaskRunnerTest extends BaseTest {
         mockActivityMonitor = mock(IterableActivityMonitor.class);
         mockNetworkConnectivityManager = mock(IterableNetworkConnectivityManager.class);
         mockHealthMonitor = mock(HealthMonitor.class);
+        when(mockTaskStorage.markTaskInFlight(any(String.class))).thenReturn(true);
         taskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor);
         server = new MockWebServer();
         IterableApi.overrideURLEndpointPath(server.url("").toString());
@@ -628,6 +640,309 @@ public class IterableTaskRunnerTest extends BaseTest {
 
     // endregion
 
+    // region Batching Tests
+
+    private IterableTask createTrackTask(String email, String eventName) throws Exception {
+        JSONObject data = new JSONObject();
+        data.put(IterableConstants.KEY_EMAIL, email);
+        data.put(IterableConstants.KEY_EVENT_NAME, eventName);
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, data, "POST", null, null, null);
+        return new IterableTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, request.toJSONObject().toString());
+    }
+
+    @Test
+    public void testBatchingSendsConsecutiveTrackTasksInSingleRequest() throws Exception {
+        IterableApi.initialize(ApplicationProvider.getApplicationContext(), IterableTestUtils.apiKey,
+                new IterableConfig.Builder().setAutoPushRegistration(false).setOfflineTaskBatchSize(10).build());
+
+        IterableTask task1 = createTrackTask("test@example.com", "event1");
+        IterableTask task2 = createTrackTask("invalid@example.com", "event2");
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task1).thenReturn(null);
+        when(mockTaskStorage.getNextScheduledTasks(10)).thenReturn(new ArrayList<>(Arrays.asList(task1, task2)));
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        IterableTaskRunner.TaskCompletedListener taskCompletedListener = mock(IterableTaskRunner.TaskCompletedListener.class);
+        taskRunner.addTaskCompletedListener(taskCompletedListener);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{\"successCount\":1,\"failCount\":1,\"invalidEmails\":[\"invalid@example.com\"]}"));
+
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        RecordedRequest recordedRequest = server.takeRequest(1, TimeUnit.SECONDS);
+        assertNotNull(recordedRequest);
+        assertEquals("/" + IterableConstants.ENDPOINT_TRACK_BULK, recordedRequest.getPath());
+        JSONArray events = new JSONObject(recordedRequest.getBody().readUtf8()).getJSONArray(IterableConstants.KEY_EVENTS);
+        assertEquals(2, events.length());
+        assertEquals("event1", events.getJSONObject(0).getString(IterableConstants.KEY_EVENT_NAME));
+        assertEquals("event2", events.getJSONObject(1).getString(IterableConstants.KEY_EVENT_NAME));
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+
+        verify(mockTaskStorage).deleteTasks(Arrays.asList(task1.id, task2.id));
+
+        shadowOf(getMainLooper()).idle();
+        verify(taskCompletedListener).onTaskCompleted(eq(task1.id), eq(IterableTaskRunner.TaskResult.SUCCESS), any(IterableApiResponse.class));
+        verify(taskCompletedListener).onTaskCompleted(eq(task2.id), eq(IterableTaskRunner.TaskResult.FAILURE), any(IterableApiResponse.class));
+    }
+
+    @Test
+    public void testBatchingDisabledByDefault() throws Exception {
+        IterableTask task1 = createTrackTask("test@example.com", "event1");
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task1).thenReturn(null);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        RecordedRequest recordedRequest = server.takeRequest(1, TimeUnit.SECONDS);
+        assertNotNull(recordedRequest);
+        assertEquals("/" + IterableConstants.ENDPOINT_TRACK, recordedRequest.getPath());
+        verify(mockTaskStorage, never()).getNextScheduledTasks(anyInt());
+    }
+
+    // endregion
+
+    // region Concurrent Processing Tests
+
+    @Test
+    public void testConcurrentProcessingKeepsOrderedEndpointsSequential() throws Exception {
+        IterableApi.initialize(ApplicationProvider.getApplicationContext(), IterableTestUtils.apiKey,
+                new IterableConfig.Builder().setAutoPushRegistration(false).setOfflineProcessingConcurrency(3).build());
+
+        IterableApiRequest cartRequest = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_CART, new JSONObject(), "POST", null, null, null);
+        IterableApiRequest purchaseRequest = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK_PURCHASE, new JSONObject(), "POST", null, null, null);
+        IterableTask cartTask = new IterableTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, cartRequest.toJSONObject().toString());
+        IterableTask purchaseTask = new IterableTask(IterableConstants.ENDPOINT_TRACK_PURCHASE, IterableTaskType.API, purchaseRequest.toJSONObject().toString());
+        IterableTask trackTask = createTrackTask("test@example.com", "event1");
+
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(cartTask).thenReturn(null);
+        when(mockTaskStorage.getNextScheduledTasks(3)).thenReturn(new ArrayList<>(Arrays.asList(cartTask, purchaseTask, trackTask)));
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+
+        verify(mockTaskStorage).deleteTask(cartTask.id);
+        verify(mockTaskStorage).deleteTask(trackTask.id);
+        verify(mockTaskStorage, never()).deleteTask(purchaseTask.id);
+    }
+
+    @Test
+    public void testConcurrentFailuresKeepTheLongestPause() throws Exception {
+        IterableApi.initialize(ApplicationProvider.getApplicationContext(), IterableTestUtils.apiKey,
+                new IterableConfig.Builder().setAutoPushRegistration(false).setOfflineProcessingConcurrency(2).build());
+
+        IterableApiRequest request1 = new IterableApiRequest("apiKey", "api/test1", new JSONObject(), "POST", null, null, null);
+        IterableApiRequest request2 = new IterableApiRequest("apiKey", "api/test2", new JSONObject(), "POST", null, null, null);
+        IterableTask task1 = new IterableTask("task1", IterableTaskType.API, request1.toJSONObject().toString());
+        IterableTask task2 = new IterableTask("task2", IterableTaskType.API, request2.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task1).thenReturn(null);
+        when(mockTaskStorage.getNextScheduledTasks(2)).thenReturn(new ArrayList<>(Arrays.asList(task1, task2)));
+        when(mockTaskStorage.updateRetrySchedule(any(String.class), anyInt(), anyLong(), anyLong())).thenReturn(true);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+
+        // The short backoff finishes last, after the hour long Retry-After
+        PathBasedQueueDispatcher dispatcher = new PathBasedQueueDispatcher();
+        dispatcher.enqueueResponse("/api/test1", new MockResponse().setResponseCode(429).setHeader("Retry-After", "3600").setBody("{}"));
+        dispatcher.enqueueResponse("/api/test2", new MockResponse().setResponseCode(503).setBody("{}").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        server.setDispatcher(dispatcher);
+
+        long startTime = System.currentTimeMillis();
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        assertEquals(2, server.getRequestCount());
+        assertTrue(taskRunner.getPausedUntil() - startTime >= 3600 * 1000);
+    }
+
+    @Test
+    public void testDispatchExecutorUsesIdleTimeoutDaemonThreadsAndFollowsConcurrency() throws Exception {
+        IterableApi.initialize(ApplicationProvider.getApplicationContext(), IterableTestUtils.apiKey,
+                new IterableConfig.Builder().setAutoPushRegistration(false).setOfflineProcessingConcurrency(3).build());
+
+        ThreadPoolExecutor executor = taskRunner.getDispatchExecutor();
+        assertEquals(3, executor.getMaximumPoolSize());
+        assertTrue(executor.allowsCoreThreadTimeOut());
+        assertTrue(executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return Thread.currentThread().isDaemon();
+            }
+        }).get(1, TimeUnit.SECONDS));
+
+        IterableApi.initialize(ApplicationProvider.getApplicationContext(), IterableTestUtils.apiKey,
+                new IterableConfig.Builder().setAutoPushRegistration(false).setOfflineProcessingConcurrency(2).build());
+
+        assertSame(executor, taskRunner.getDispatchExecutor());
+        assertEquals(2, executor.getCorePoolSize());
+        assertEquals(2, executor.getMaximumPoolSize());
+    }
+
+    // endregion
+
+    // region Retry Backoff Tests
+
+    @Test
+    public void testServerErrorReschedulesTaskAndContinuesWithNextTask() throws Exception {
+        IterableApiRequest request1 = new IterableApiRequest("apiKey", "api/test1", new JSONObject(), "POST", null, null, null);
+        IterableApiRequest request2 = new IterableApiRequest("apiKey", "api/test2", new JSONObject(), "POST", null, null, null);
+        IterableTask task1 = new IterableTask("task1", IterableTaskType.API, request1.toJSONObject().toString());
+        IterableTask task2 = new IterableTask("task2", IterableTaskType.API, request2.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task1).thenReturn(task2).thenReturn(null);
+        when(mockTaskStorage.updateRetrySchedule(any(String.class), anyInt(), anyLong(), anyLong())).thenReturn(true);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        assertEquals("/api/test1", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+        assertEquals("/api/test2", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+
+        verify(mockTaskStorage).updateRetrySchedule(eq(task1.id), eq(1), anyLong(), anyLong());
+        verify(mockTaskStorage, never()).deleteTask(task1.id);
+        verify(mockTaskStorage).deleteTask(task2.id);
+    }
+
+    @Test
+    public void testOrderedTaskRetryDefersAllOrderedEndpoints() throws Exception {
+        IterableApiRequest cartRequest = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_CART, new JSONObject(), "POST", null, null, null);
+        IterableTask cartTask = new IterableTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, cartRequest.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(cartTask).thenReturn(null);
+        when(mockTaskStorage.updateRetrySchedule(any(String.class), anyInt(), anyLong(), anyLong())).thenReturn(true);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{}"));
+
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        // A queued purchase must not be sent ahead of the cart update that is waiting for a retry
+        verify(mockTaskStorage).deferTasks(argThat(names -> names.contains(IterableConstants.ENDPOINT_UPDATE_CART) &&
+                names.contains(IterableConstants.ENDPOINT_TRACK_PURCHASE)), anyLong());
+    }
+
+    @Test
+    public void testRateLimitHonorsRetryAfterAndPausesQueue() throws Exception {
+        IterableApiRequest request1 = new IterableApiRequest("apiKey", "api/test1", new JSONObject(), "POST", null, null, null);
+        IterableApiRequest request2 = new IterableApiRequest("apiKey", "api/test2", new JSONObject(), "POST", null, null, null);
+        IterableTask task1 = new IterableTask("task1", IterableTaskType.API, request1.toJSONObject().toString());
+        IterableTask task2 = new IterableTask("task2", IterableTaskType.API, request2.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task1).thenReturn(task2).thenReturn(null);
+        when(mockTaskStorage.updateRetrySchedule(any(String.class), anyInt(), anyLong(), anyLong())).thenReturn(true);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "120").setBody("{}"));
+
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+
+        assertEquals("/api/test1", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+
+        ArgumentCaptor<Long> lastAttemptedAt = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Long> scheduledAt = ArgumentCaptor.forClass(Long.class);
+        verify(mockTaskStorage).updateRetrySchedule(eq(task1.id), eq(1), lastAttemptedAt.capture(), scheduledAt.capture());
+        long delay = scheduledAt.getValue() - lastAttemptedAt.getValue();
+        assertTrue(delay >= 120000 && delay <= 132000);
+        verify(mockTaskStorage, never()).deleteTask(any(String.class));
+    }
+
+    @Test
+    public void testRetryDelayGrowsExponentiallyWithJitter() {
+        IterableApiResponse response = IterableApiResponse.failure(500, "{}", null, "Internal Server Error");
+        for (int attempts = 1; attempts <= 5; attempts++) {
+            long maxDelay = 10000L << (attempts - 1);
+            long delay = taskRunner.getRetryDelay(attempts, response);
+            assertTrue(delay >= maxDelay / 2 && delay <= maxDelay);
+        }
+        assertTrue(taskRunner.getRetryDelay(100, response) <= 60 * 60 * 1000);
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(30000, IterableRequestTask.parseRetryAfter("30"));
+        assertEquals(0, IterableRequestTask.parseRetryAfter(null));
+        assertEquals(0, IterableRequestTask.parseRetryAfter("invalid"));
+        assertEquals(0, IterableRequestTask.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    // endregion
+
+    // region Background Processing Tests
+
+    @Test
+    public void testSwitchToBackgroundSchedulesWorkWhenTasksAreQueued() throws Exception {
+        IterableOfflineQueueWorkScheduler mockWorkScheduler = mock(IterableOfflineQueueWorkScheduler.class);
+        taskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new ApiEndpointClassification(), mockWorkScheduler);
+        when(mockTaskStorage.getNumberOfTasks()).thenReturn(1L);
+
+        taskRunner.onSwitchToBackground();
+        runHandlerTasks(taskRunner);
+
+        verify(mockWorkScheduler).scheduleOfflineQueueWork();
+    }
+
+    @Test
+    public void testSwitchToBackgroundDoesNotScheduleWorkWhenQueueIsEmpty() throws Exception {
+        IterableOfflineQueueWorkScheduler mockWorkScheduler = mock(IterableOfflineQueueWorkScheduler.class);
+        taskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new ApiEndpointClassification(), mockWorkScheduler);
+        when(mockTaskStorage.getNumberOfTasks()).thenReturn(0L);
+
+        taskRunner.onSwitchToBackground();
+        runHandlerTasks(taskRunner);
+
+        verify(mockWorkScheduler, never()).scheduleOfflineQueueWork();
+    }
+
+    @Test
+    public void testBackgroundProcessingSchedulesDelayedWorkForDeferredTasks() throws Exception {
+        IterableOfflineQueueWorkScheduler mockWorkScheduler = mock(IterableOfflineQueueWorkScheduler.class);
+        taskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new ApiEndpointClassification(), mockWorkScheduler);
+        when(mockTaskStorage.getNumberOfTasks()).thenReturn(1L);
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(null);
+        when(mockTaskStorage.getNextScheduledAt()).thenReturn(IterableUtil.currentTimeMillis() + 60000);
+
+        assertTrue(taskRunner.processTasksInBackground());
+
+        ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(mockWorkScheduler).scheduleOfflineQueueWork(delayCaptor.capture());
+        assertTrue(delayCaptor.getValue() > 0 && delayCaptor.getValue() <= 60000);
+    }
+
+    @Test
+    public void testBackgroundProcessingRetriesWhenTasksAreDue() throws Exception {
+        IterableOfflineQueueWorkScheduler mockWorkScheduler = mock(IterableOfflineQueueWorkScheduler.class);
+        taskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new ApiEndpointClassification(), mockWorkScheduler);
+        when(mockTaskStorage.getNumberOfTasks()).thenReturn(1L);
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(new IterableTask("testTask", IterableTaskType.API, "{}"));
+
+        assertFalse(taskRunner.processTasksInBackground());
+
+        verify(mockWorkScheduler, never()).scheduleOfflineQueueWork(anyLong());
+    }
+
+    // endregion
+
     private void runHandlerTasks(IterableTaskRunner taskRunner) throws InterruptedException {
         shadowOf(taskRunner.handler.getLooper()).idle();
     }
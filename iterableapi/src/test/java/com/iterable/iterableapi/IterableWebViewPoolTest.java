@@ -0,0 +1,50 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.MutableContextWrapper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+public class IterableWebViewPoolTest extends BaseTest {
+
+    @After
+    public void tearDown() {
+        IterableWebViewPool.reset();
+    }
+
+    @Test
+    public void testNoWebViewIsCreatedWithoutWarmUp() {
+        Context activityContext = new ContextWrapper(getContext());
+        IterableWebView webView = IterableWebViewPool.obtain(activityContext);
+        shadowOf(getMainLooper()).idle();
+
+        assertSame(activityContext, webView.getContext());
+        assertFalse(IterableWebViewPool.hasSpareWebView());
+    }
+
+    @Test
+    public void testWarmUpCreatesSpareWebView() {
+        IterableWebViewPool.warmUp(getContext());
+        shadowOf(getMainLooper()).idle();
+        assertTrue(IterableWebViewPool.hasSpareWebView());
+
+        Context activityContext = new ContextWrapper(getContext());
+        IterableWebView webView = IterableWebViewPool.obtain(activityContext);
+        assertSame(activityContext, ((MutableContextWrapper) webView.getContext()).getBaseContext());
+        assertFalse(IterableWebViewPool.hasSpareWebView());
+
+        // Another spare WebView is created for the next message
+        shadowOf(getMainLooper()).idle();
+        assertTrue(IterableWebViewPool.hasSpareWebView());
+        assertNotSame(webView, IterableWebViewPool.obtain(activityContext));
+    }
+}
@@ -3,14 +3,17 @@ package com.iterable.iterableapi;
 import com.iterable.iterableapi.unit.TestRunner;
 
 import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -32,12 +35,18 @@ public class OfflineRequestProcessorTest extends BaseTest {
         offlineRequestProcessor = new OfflineRequestProcessor(mockTaskScheduler, mockTaskRunner, mockTaskStorage, mockHealthMonitor);
     }
 
+    @After
+    public void tearDown() {
+        IterableTestUtils.resetIterableApi();
+    }
+
     @Test
     public void testOfflineRequestIsStored() {
         IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK_INAPP_CLICK, new JSONObject(), "POST", null, null, null);
-        when(mockHealthMonitor.canSchedule()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        when(mockTaskScheduler.scheduleTask(any(IterableApiRequest.class), isNull(), isNull(), any(IterableTaskStorage.OverflowHandler.class))).thenReturn(true);
         offlineRequestProcessor.processPostRequest(request.apiKey, request.resourcePath, request.json, request.authToken, request.successCallback, request.failureCallback);
-        verify(mockTaskScheduler).scheduleTask(any(IterableApiRequest.class), isNull(), isNull());
+        verify(mockTaskScheduler).scheduleTask(any(IterableApiRequest.class), isNull(), isNull(), any(IterableTaskStorage.OverflowHandler.class));
     }
 
     @Test
@@ -50,11 +59,29 @@ public class OfflineRequestProcessorTest extends BaseTest {
     @Test
     public void testOnlineRequestWhenDBError() {
         IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK_INAPP_CLICK, new JSONObject(), "POST", null, null, null);
-        when(mockHealthMonitor.canSchedule()).thenReturn(false);
+        when(mockHealthMonitor.canProcess()).thenReturn(false);
         offlineRequestProcessor.processPostRequest(request.apiKey, request.resourcePath, request.json, request.authToken, request.successCallback, request.failureCallback);
         verifyNoInteractions(mockTaskScheduler);
     }
 
+    @Test
+    public void testLowPriorityRequestIsDroppedWhenQueueIsFullOfHigherPriorityRequests() {
+        IterableTestUtils.createIterableApiNew(builder -> builder.setOfflineQueueOverflowPolicy(IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY));
+        IterableHelper.FailureHandler failureHandler = mock(IterableHelper.FailureHandler.class);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        when(mockHealthMonitor.dropTaskForOverflow(IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY, IterableOfflineQueueOverflowPolicy.DROP_LOWEST_PRIORITY)).thenReturn(null);
+        // The storage is full and asks the overflow handler to make room
+        when(mockTaskScheduler.scheduleTask(any(IterableApiRequest.class), any(), any(), any(IterableTaskStorage.OverflowHandler.class))).thenAnswer(invocation -> {
+            IterableTaskStorage.OverflowHandler overflowHandler = invocation.getArgument(3);
+            return overflowHandler.dropTaskForOverflow() != null;
+        });
+
+        offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY, new JSONObject(), null, null, failureHandler);
+
+        verify(mockTaskScheduler, never()).onTaskDropped(any(String.class));
+        verify(failureHandler).onFailure(eq("Offline queue is full"), isNull());
+    }
+
     @Test
     public void testAllOfflineApisUseTaskScheduler() {
         String[] offlineApis = new String[]{